@@ -0,0 +1,30 @@
+package uk.org.webcompere.systemstubs.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmarks jar. This takes the same arguments as the JMH command line, and always adds
+ * the GC profiler, so that the allocation rate of each benchmark is reported alongside its time, and writes
+ * the results as JSON to <code>jmh-result.json</code> for comparison between runs.
+ */
+public class BenchmarkRunner {
+
+    /**
+     * Run the benchmarks
+     * @param args JMH command line arguments, such as a regular expression to choose the benchmarks
+     * @throws Exception on error
+     */
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .resultFormat(ResultFormatType.JSON)
+            .build();
+        new Runner(options).run();
+    }
+}
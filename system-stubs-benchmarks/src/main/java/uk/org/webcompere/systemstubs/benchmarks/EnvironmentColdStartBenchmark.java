@@ -0,0 +1,67 @@
+package uk.org.webcompere.systemstubs.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.org.webcompere.systemstubs.environment.EnvironmentVariableMocker;
+import uk.org.webcompere.systemstubs.environment.EnvironmentVariables;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The first use of {@link EnvironmentVariables} in a fresh JVM, which is when the environment is intercepted,
+ * unless that was done in advance. With <code>preinstall</code> set to <code>eager</code>, the fork calls
+ * {@link EnvironmentVariables#install()} before the measurement, leaving only the cost of first use once
+ * installed. With <code>background</code>, it calls {@link EnvironmentVariables#installInBackground()}
+ * immediately before the measurement, so the first use waits for whatever is left of the installation; in a
+ * test run, discovery and other tests overlap with it, and the wait is shorter. Each fork makes a single
+ * measurement, so this needs many forks to be meaningful.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+@State(Scope.Benchmark)
+public class EnvironmentColdStartBenchmark {
+
+    @Param({"delegation", "advice"})
+    public String interception;
+
+    @Param({"none", "eager", "background"})
+    public String preinstall;
+
+    /**
+     * Choose the interception for this fork, before anything uses environment mocking, then start installing
+     * it if the fork preinstalls
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        System.setProperty(EnvironmentVariableMocker.INTERCEPTION_PROPERTY, interception);
+        if ("eager".equals(preinstall)) {
+            EnvironmentVariables.install();
+        } else if ("background".equals(preinstall)) {
+            EnvironmentVariables.installInBackground();
+        }
+    }
+
+    /**
+     * Activate environment variables for the first time
+     * @return the value read from the mocked environment
+     * @throws Exception on error
+     */
+    @Benchmark
+    public String firstUse() throws Exception {
+        return new EnvironmentVariables(EnvironmentVariablesBenchmark.MOCKED_VARIABLE, "value")
+            .execute(() -> System.getenv(EnvironmentVariablesBenchmark.MOCKED_VARIABLE));
+    }
+}
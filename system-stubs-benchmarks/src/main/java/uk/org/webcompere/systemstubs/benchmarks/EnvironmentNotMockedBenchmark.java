@@ -0,0 +1,59 @@
+package uk.org.webcompere.systemstubs.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.org.webcompere.systemstubs.environment.EnvironmentVariableMocker;
+import uk.org.webcompere.systemstubs.environment.EnvironmentVariables;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading environment variables in a JVM where environment mocking has been used, but is not active now. This
+ * is what code outside of the tests which use {@link EnvironmentVariables} pays. The <code>none</code> case
+ * never uses mocking, as a baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EnvironmentNotMockedBenchmark {
+
+    @Param({"none", "delegation", "advice"})
+    public String interception;
+
+    /**
+     * Choose the interception for this fork and use it once, so that the JVM's environment is intercepted
+     * @throws Exception on error
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        if (!"none".equals(interception)) {
+            System.setProperty(EnvironmentVariableMocker.INTERCEPTION_PROPERTY, interception);
+            new EnvironmentVariables(EnvironmentVariablesBenchmark.MOCKED_VARIABLE, "value")
+                .execute(() -> { });
+        }
+    }
+
+    @Benchmark
+    public String getenvByName() {
+        return System.getenv("PATH");
+    }
+
+    @Benchmark
+    public Map<String, String> getenv() {
+        return System.getenv();
+    }
+}
@@ -0,0 +1,87 @@
+package uk.org.webcompere.systemstubs.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.org.webcompere.systemstubs.environment.EnvironmentVariableMocker;
+import uk.org.webcompere.systemstubs.environment.EnvironmentVariables;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading environment variables while {@link EnvironmentVariables} is active, and the cost of activating it,
+ * for each way of intercepting the JVM's environment
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EnvironmentVariablesBenchmark {
+    static final String MOCKED_VARIABLE = "SYSTEM_STUBS_BENCHMARK";
+
+    @Param({"delegation", "advice"})
+    public String interception;
+
+    private EnvironmentVariables environmentVariables;
+
+    /**
+     * Choose the interception for this fork, before anything uses environment mocking, then activate it
+     * @throws Exception on error
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        System.setProperty(EnvironmentVariableMocker.INTERCEPTION_PROPERTY, interception);
+        environmentVariables = new EnvironmentVariables(MOCKED_VARIABLE, "value");
+        environmentVariables.setup();
+    }
+
+    /**
+     * Deactivate the mock environment
+     * @throws Exception on error
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        environmentVariables.teardown();
+    }
+
+    @Benchmark
+    public String getenvByName() {
+        return System.getenv(MOCKED_VARIABLE);
+    }
+
+    @Benchmark
+    public String getenvByNameNotMocked() {
+        return System.getenv("PATH");
+    }
+
+    @Benchmark
+    public Map<String, String> getenv() {
+        return System.getenv();
+    }
+
+    /**
+     * Activate and deactivate another layer of variables over those already mocked
+     * @return the stub, so its setup is not optimised away
+     * @throws Exception on error
+     */
+    @Benchmark
+    public EnvironmentVariables setupAndTeardown() throws Exception {
+        EnvironmentVariables layer = new EnvironmentVariables("SYSTEM_STUBS_LAYER", "value");
+        layer.setup();
+        layer.teardown();
+        return layer;
+    }
+}
@@ -0,0 +1,78 @@
+package uk.org.webcompere.systemstubs.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.org.webcompere.systemstubs.stream.input.LinesAltStream;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Reading all of the input from a {@link LinesAltStream}, as code under test does from a stubbed
+ * <code>System.in</code>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LinesAltStreamBenchmark {
+    @Param({"10", "1000"})
+    public int lineCount;
+
+    private String[] lines;
+    private final byte[] buffer = new byte[8192];
+
+    /**
+     * Prepare the lines of input
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        lines = IntStream.range(0, lineCount)
+            .mapToObj(i -> "line of input number " + i)
+            .toArray(String[]::new);
+    }
+
+    /**
+     * Read the stream a byte at a time
+     * @return the number of bytes read
+     * @throws IOException on error
+     */
+    @Benchmark
+    public int readByteByByte() throws IOException {
+        LinesAltStream stream = new LinesAltStream(lines);
+        int count = 0;
+        while (stream.read() != -1) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Read the stream into a buffer
+     * @return the number of bytes read
+     * @throws IOException on error
+     */
+    @Benchmark
+    public int readIntoBuffer() throws IOException {
+        LinesAltStream stream = new LinesAltStream(lines);
+        int count = 0;
+        int read;
+        while ((read = stream.read(buffer, 0, buffer.length)) != -1) {
+            count += read;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,151 @@
+package uk.org.webcompere.systemstubs.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.org.webcompere.systemstubs.stream.SystemStreamBase;
+import uk.org.webcompere.systemstubs.stream.output.MultiplexOutput;
+import uk.org.webcompere.systemstubs.stream.output.NoopStream;
+import uk.org.webcompere.systemstubs.stream.output.TapStream;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing to the outputs used when stubbing <code>System.out</code> and <code>System.err</code>, through the
+ * {@link PrintStream} that {@link SystemStreamBase#wrap} puts in place of the system stream. The outputs
+ * are cleared whenever they pass a limit, so that the measurement isn't dominated by growing the buffer.
+ * The byte-at-a-time variants show the cost of fanning out a {@link MultiplexOutput} one byte at a time,
+ * as {@link java.io.OutputStream} does for streams that only implement <code>write(int)</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OutputBenchmark {
+    private static final int CLEAR_AFTER_BYTES = 1 << 20;
+
+    @Param({"16", "256"})
+    public int lineLength;
+
+    private String line;
+    private byte[] bytes;
+
+    private TapStream tapStream;
+    private PrintStream tapPrintStream;
+
+    private TapStream multiplexFirst;
+    private MultiplexOutput multiplexOutput;
+    private PrintStream multiplexPrintStream;
+
+    private TapStream byteAtATimeFirst;
+    private MultiplexOutput byteAtATimeOutput;
+    private PrintStream byteAtATimePrintStream;
+
+    private PrintStream noopPrintStream;
+
+    /**
+     * Create fresh outputs for each iteration
+     * @throws UnsupportedEncodingException never - the default encoding is supported
+     */
+    @Setup(Level.Iteration)
+    public void setUp() throws UnsupportedEncodingException {
+        line = "x".repeat(lineLength);
+        bytes = line.getBytes(StandardCharsets.UTF_8);
+
+        tapStream = new TapStream();
+        tapPrintStream = SystemStreamBase.wrap(tapStream);
+
+        multiplexFirst = new TapStream();
+        multiplexOutput = new MultiplexOutput(multiplexFirst, new TapStream(), new NoopStream());
+        multiplexPrintStream = SystemStreamBase.wrap(multiplexOutput);
+
+        byteAtATimeFirst = new TapStream();
+        byteAtATimeOutput = new ByteAtATimeMultiplexOutput(byteAtATimeFirst, new TapStream(), new NoopStream());
+        byteAtATimePrintStream = SystemStreamBase.wrap(byteAtATimeOutput);
+
+        noopPrintStream = SystemStreamBase.wrap(new NoopStream());
+    }
+
+    /**
+     * Print a line to a {@link TapStream}
+     */
+    @Benchmark
+    public void printlnToTapStream() {
+        tapPrintStream.println(line);
+        if (tapStream.size() > CLEAR_AFTER_BYTES) {
+            tapStream.clear();
+        }
+    }
+
+    /**
+     * Write an array of bytes to a {@link TapStream}
+     */
+    @Benchmark
+    public void writeBytesToTapStream() {
+        tapPrintStream.write(bytes, 0, bytes.length);
+        if (tapStream.size() > CLEAR_AFTER_BYTES) {
+            tapStream.clear();
+        }
+    }
+
+    /**
+     * Print a line to a {@link MultiplexOutput} of two taps and a no-op output
+     */
+    @Benchmark
+    public void printlnToMultiplexOutput() {
+        multiplexPrintStream.println(line);
+        if (multiplexFirst.size() > CLEAR_AFTER_BYTES) {
+            multiplexOutput.clear();
+        }
+    }
+
+    /**
+     * Print a line to a {@link MultiplexOutput} of two taps and a no-op output, writing to them a byte at a time
+     */
+    @Benchmark
+    public void printlnToMultiplexOutputByteAtATime() {
+        byteAtATimePrintStream.println(line);
+        if (byteAtATimeFirst.size() > CLEAR_AFTER_BYTES) {
+            byteAtATimeOutput.clear();
+        }
+    }
+
+    /**
+     * Print a line to a {@link NoopStream}, as when muting an output
+     */
+    @Benchmark
+    public void printlnToNoopStream() {
+        noopPrintStream.println(line);
+    }
+
+    /**
+     * Fans out each byte to the outputs separately, as a {@link MultiplexOutput} without an array write would
+     */
+    private static class ByteAtATimeMultiplexOutput extends MultiplexOutput {
+        ByteAtATimeMultiplexOutput(TapStream first, TapStream second, NoopStream third) {
+            super(first, second, third);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package uk.org.webcompere.systemstubs.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.org.webcompere.systemstubs.environment.EnvironmentVariables;
+import uk.org.webcompere.systemstubs.properties.SystemProperties;
+import uk.org.webcompere.systemstubs.resource.Resources;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Running code with {@link Resources#execute} around it, as the execute-around tests do
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResourcesBenchmark {
+
+    /**
+     * Run a task with a system property and an environment variable stubbed
+     * @return the result of the task
+     * @throws Exception on error
+     */
+    @Benchmark
+    public String executeWithPropertiesAndEnvironment() throws Exception {
+        return Resources.execute(() -> System.getProperty("system.stubs.benchmark"),
+            new SystemProperties("system.stubs.benchmark", "value"),
+            new EnvironmentVariables(EnvironmentVariablesBenchmark.MOCKED_VARIABLE, "value"));
+    }
+
+    /**
+     * Run a task with a system property stubbed
+     * @return the result of the task
+     * @throws Exception on error
+     */
+    @Benchmark
+    public String executeWithProperties() throws Exception {
+        return Resources.execute(() -> System.getProperty("system.stubs.benchmark"),
+            new SystemProperties("system.stubs.benchmark", "value"));
+    }
+}
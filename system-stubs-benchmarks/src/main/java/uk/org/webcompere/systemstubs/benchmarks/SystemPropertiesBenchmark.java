@@ -0,0 +1,39 @@
+package uk.org.webcompere.systemstubs.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.org.webcompere.systemstubs.properties.SystemProperties;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Activating and deactivating {@link SystemProperties}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SystemPropertiesBenchmark {
+
+    /**
+     * Activate and deactivate a single property
+     * @return the stub, so its setup is not optimised away
+     * @throws Exception on error
+     */
+    @Benchmark
+    public SystemProperties setupAndTeardown() throws Exception {
+        SystemProperties properties = new SystemProperties("system.stubs.benchmark", "value");
+        properties.setup();
+        properties.teardown();
+        return properties;
+    }
+}
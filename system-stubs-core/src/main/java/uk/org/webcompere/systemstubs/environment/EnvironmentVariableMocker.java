@@ -3,6 +3,7 @@ package uk.org.webcompere.systemstubs.environment;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import net.bytebuddy.ByteBuddy;
 import net.bytebuddy.agent.ByteBuddyAgent;
+import net.bytebuddy.dynamic.DynamicType;
 import net.bytebuddy.dynamic.loading.ClassReloadingStrategy;
 import net.bytebuddy.implementation.MethodDelegation;
 import uk.org.webcompere.systemstubs.internal.ProcessEnvironmentInterceptor;
@@ -12,6 +13,8 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.instrument.Instrumentation;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.jar.JarFile;
 
 import static net.bytebuddy.matcher.ElementMatchers.isStatic;
@@ -21,30 +24,69 @@ import static net.bytebuddy.matcher.ElementMatchers.namedOneOf;
  * This takes control of the environment variables using ByteBuddy. It captures the environment
  * when first used, and defaults to that. When the {@link EnvironmentVariables} mock wishes to provide
  * mocking, the alternative map of variables is put into a stack and set as the current variables used by
- * the interceptor.
+ * the interceptor. Each map in the stack only needs to contain the variables it changes, as the others are
+ * read from the map beneath it, and ultimately from the original environment. Alternatively, the map of
+ * variables can be stacked for the current thread only, via {@link #connectToThread(Map, Set)}, leaving other
+ * threads to see the global stack.
+ * By default, the methods of <code>ProcessEnvironment</code> are replaced with delegation to the interceptor.
+ * Setting the system property {@value #INTERCEPTION_PROPERTY} to {@value #INTERCEPTION_ADVICE} instead inlines
+ * a check into the original methods, which then only divert to the interceptor while mocking is active.
+ * Setting {@value #UNHOOK_PROPERTY} to <code>true</code> goes further, putting back the original
+ * <code>getenv</code> and <code>environment</code> methods whenever nothing is mocked, at the cost of redefining
+ * <code>ProcessEnvironment</code> each time mocking starts and stops. Its conversion of the environment for
+ * child processes stays intercepted, for <code>ProcessBuilder</code>s created while mocking.
  */
 @SuppressFBWarnings(value = "RV_RETURN_VALUE_IGNORED",
     justification = "We need to set up the stub, but interaction is set on construction")
 public class EnvironmentVariableMocker {
-    private static final Stack<Map<String, String>> REPLACEMENT_ENV = new Stack<>();
+    /**
+     * System property for choosing how <code>ProcessEnvironment</code> is intercepted
+     * @since 2.1.9
+     */
+    public static final String INTERCEPTION_PROPERTY = "systemstubs.environment.interception";
+
+    /**
+     * Value of {@link #INTERCEPTION_PROPERTY} to inline advice into <code>ProcessEnvironment</code> rather
+     * than delegate to the interceptor
+     * @since 2.1.9
+     */
+    public static final String INTERCEPTION_ADVICE = "advice";
+
+    /**
+     * System property which, when <code>true</code>, restores the original <code>getenv</code> and
+     * <code>environment</code> methods of <code>ProcessEnvironment</code> whenever no mock environment variables
+     * are connected, intercepting them again on the next connection
+     * @since 2.1.9
+     */
+    public static final String UNHOOK_PROPERTY = "systemstubs.environment.unhook";
+
+    // the top of the global stack of layers, which are never modified once connected, or the original environment
+    private static final AtomicReference<Map<String, String>> REPLACEMENT_ENV;
     private static final Map<String, String> ORIGINAL_ENV;
+    private static final String INTERCEPTOR_AGENT = "uk.org.webcompere.systemstubs.internal.InterceptorAgent";
+    private static final Map<String, String> GLOBAL_ENV = new GlobalEnvironment();
+
+    private static final boolean UNHOOK_WHEN_INACTIVE = Boolean.getBoolean(UNHOOK_PROPERTY);
+    private static final Object HOOK_LOCK = new Object();
+    private static final Instrumentation INSTRUMENTATION;
+    private static final Class<?> PROCESS_ENVIRONMENT;
+    private static boolean hooked;
 
     static {
         ORIGINAL_ENV = new HashMap<>(System.getenv());
+        REPLACEMENT_ENV = new AtomicReference<>(ORIGINAL_ENV);
         try {
-            Instrumentation instrumentation = ByteBuddyAgent.install();
-            installInterceptorIntoBootLoader(instrumentation);
+            Instrumentation instrumentation = agentInstrumentation();
+            if (instrumentation == null) {
+                instrumentation = ByteBuddyAgent.install();
+                installInterceptorIntoBootLoader(instrumentation);
+            }
+            INSTRUMENTATION = instrumentation;
+            PROCESS_ENVIRONMENT = Class.forName("java.lang.ProcessEnvironment");
 
-            var byteBuddy = new ByteBuddy();
-            byteBuddy.redefine(Class.forName("java.lang.ProcessEnvironment"))
-                .method(isStatic().and(namedOneOf("getenv", "environment", "toEnvironmentBlock")))
-                .intercept(MethodDelegation.to(ProcessEnvironmentInterceptor.class))
-                .make()
-                .load(
-                    EnvironmentVariableMocker.class.getClassLoader(),
-                    ClassReloadingStrategy.fromInstalledAgent());
-
-            ProcessEnvironmentInterceptor.setEnv(ORIGINAL_ENV);
+            // the interceptor reads the global layers through this view, so it always sees the latest
+            ProcessEnvironmentInterceptor.setEnv(GLOBAL_ENV);
+            intercept();
         } catch (Throwable e) {
 
             throw new IllegalStateException("Cannot set up environment mocking: " + e.getMessage() +
@@ -52,6 +94,22 @@ public class EnvironmentVariableMocker {
         }
     }
 
+    /**
+     * If the JVM was started with the interceptor jar as a <code>-javaagent</code> then the interceptor is
+     * already in the boot loader, and there's no need to attach an agent or extract the jar.
+     * @return the agent's instrumentation, or <code>null</code> if not running with the agent
+     */
+    private static Instrumentation agentInstrumentation() throws ReflectiveOperationException {
+        try {
+            // only look in the boot loader, so as not to load the interceptor from anywhere else
+            return (Instrumentation) Class.forName(INTERCEPTOR_AGENT, true, null)
+                .getMethod("getInstrumentation")
+                .invoke(null);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
     private static void installInterceptorIntoBootLoader(Instrumentation instrumentation) throws IOException {
         File tempFile = File.createTempFile("interceptor",".jar");
         tempFile.deleteOnExit();
@@ -64,6 +122,15 @@ public class EnvironmentVariableMocker {
         instrumentation.appendToBootstrapClassLoaderSearch(new JarFile(tempFile));
     }
 
+    /**
+     * Make sure that the environment is intercepted. That happens when this class is first used, so this
+     * has nothing more to do, but calling it moves the cost of that to a time of the caller's choosing.
+     * @since 2.1.9
+     */
+    public static void install() {
+        // the static initializer has already done the work by the time this runs
+    }
+
     @Deprecated(since = "2.1.5")
     public static void connect(Map<String, String> newEnvironmentVariables) {
         connect(newEnvironmentVariables, Collections.emptySet());
@@ -73,18 +140,88 @@ public class EnvironmentVariableMocker {
      * Attach a map as the mutable replacement environment variables for now. This can be done
      * multiple times and each time the replacement will supersede the maps before. Then when {@link #pop()}
      * is called, we'll rollback to the previous.
-     * @param newEnvironmentVariables the mutable map - note: this will be populated by the current
-     *                                environment
-     * @param variablesToRemove a list of variables to take out of the resulting environment variables
+     * @param newEnvironmentVariables the mutable map of variables to change - any variable not in the map
+     *                                is read from the environment that was in place before. A variable with
+     *                                a <code>null</code> value is treated as absent
+     * @param variablesToRemove a list of variables to take out of the resulting environment variables - this
+     *                          is kept by reference, so may be added to while connected
      */
     public static void connect(Map<String, String> newEnvironmentVariables, Set<String> variablesToRemove) {
-        // add all entries not already present in the new environment variables
-        System.getenv().entrySet().stream()
-            .filter(entry -> !newEnvironmentVariables.containsKey(entry.getKey()))
-            .forEach(entry -> newEnvironmentVariables.put(entry.getKey(), entry.getValue()));
         variablesToRemove.forEach(newEnvironmentVariables::remove);
-        REPLACEMENT_ENV.push(newEnvironmentVariables);
-        ProcessEnvironmentInterceptor.setEnv(newEnvironmentVariables);
+        Map<String, String> current;
+        do {
+            current = REPLACEMENT_ENV.get();
+        } while (!REPLACEMENT_ENV.compareAndSet(current,
+            new LayeredEnvironment(newEnvironmentVariables, variablesToRemove, current)));
+        ProcessEnvironmentInterceptor.activate();
+        rehook();
+    }
+
+    /**
+     * Attach a map as the mutable replacement environment variables for the current thread, and any threads
+     * it goes on to create. Other threads are unaffected, so tests running in parallel can each have their own
+     * environment. This can be done multiple times on the same thread, and each is rolled back with
+     * {@link #removeFromThread(Map)}, which must be called on the same thread. The variables are layered over
+     * the environment the thread already sees, including any it inherited from the thread which created it.
+     * Workers of a <code>ForkJoinPool</code> don't inherit variables, and need tasks wrapped with
+     * {@link #withThreadEnvironment(Runnable)}.
+     * @param newEnvironmentVariables the mutable map of variables to change - any variable not in the map
+     *                                is read from the environment that was in place before
+     * @param variablesToRemove a list of variables to take out of the resulting environment variables
+     * @since 2.1.9
+     */
+    public static void connectToThread(Map<String, String> newEnvironmentVariables, Set<String> variablesToRemove) {
+        variablesToRemove.forEach(newEnvironmentVariables::remove);
+        Map<String, String> threadEnvironment = ProcessEnvironmentInterceptor.getThreadEnv();
+        Map<String, String> underlying = threadEnvironment == null ? GLOBAL_ENV : threadEnvironment;
+        ProcessEnvironmentInterceptor.pushThreadEnv(new LayeredEnvironment(newEnvironmentVariables,
+            variablesToRemove, underlying, Thread.currentThread()));
+        rehook();
+    }
+
+    /**
+     * Remove a map attached to the current thread with {@link #connectToThread(Map, Set)}. Threads which
+     * inherited it go back to the global environment. Once all that the thread attached is removed, it goes back
+     * to the environment it had before.
+     * @param theOneToPop the map to remove
+     * @return true if removed
+     * @throws IllegalStateException if the map was attached by another thread, which is the only one that
+     *     can remove it
+     * @since 2.1.9
+     */
+    public static boolean removeFromThread(Map<String, String> theOneToPop) {
+        LayeredEnvironment found = find(ProcessEnvironmentInterceptor.getThreadEnv(), theOneToPop);
+        if (found != null && found.getOwner() != Thread.currentThread()) {
+            throw new IllegalStateException("Environment variables connected to thread " +
+                found.getOwner().getName() + " cannot be removed from thread " + Thread.currentThread().getName());
+        }
+
+        boolean result = found != null && unlink(found);
+        unhookIfInactive();
+        return result;
+    }
+
+    /**
+     * Wrap a task so that, whichever thread runs it, it sees the environment of the current thread. This
+     * is needed for executors whose threads were not created while the thread's environment was connected.
+     * @param runnable the task to wrap
+     * @return a task which runs with the current thread's environment variables
+     * @since 2.1.9
+     */
+    public static Runnable withThreadEnvironment(Runnable runnable) {
+        return ProcessEnvironmentInterceptor.propagateThreadEnv(runnable);
+    }
+
+    /**
+     * Wrap a task so that, whichever thread runs it, it sees the environment of the current thread. This
+     * is needed for executors whose threads were not created while the thread's environment was connected.
+     * @param callable the task to wrap
+     * @param <T> the type of result
+     * @return a task which runs with the current thread's environment variables
+     * @since 2.1.9
+     */
+    public static <T> Callable<T> withThreadEnvironment(Callable<T> callable) {
+        return ProcessEnvironmentInterceptor.propagateThreadEnv(callable);
     }
 
     /**
@@ -92,18 +229,20 @@ public class EnvironmentVariableMocker {
      * the original implementation of the getenv functions will be called directly again.
      * @return true if mocking has now stopped
      */
-    public static synchronized boolean pop() {
-        if (!REPLACEMENT_ENV.empty()) {
-            REPLACEMENT_ENV.pop();
-        }
+    public static boolean pop() {
+        Map<String, String> current;
+        Map<String, String> updated;
+        do {
+            current = REPLACEMENT_ENV.get();
+            updated = current == ORIGINAL_ENV ? current : ((LayeredEnvironment) current).getUnderlying();
+        } while (!REPLACEMENT_ENV.compareAndSet(current, updated));
 
-        if (!REPLACEMENT_ENV.empty()) {
-            ProcessEnvironmentInterceptor.setEnv(REPLACEMENT_ENV.peek());
-        } else {
-            ProcessEnvironmentInterceptor.setEnv(ORIGINAL_ENV);
+        if (current != ORIGINAL_ENV) {
+            ProcessEnvironmentInterceptor.deactivate();
         }
+        unhookIfInactive();
 
-        return REPLACEMENT_ENV.empty();
+        return updated == ORIGINAL_ENV;
     }
 
     /**
@@ -111,15 +250,123 @@ public class EnvironmentVariableMocker {
      * @param theOneToPop the map to remove
      * @return true if removed
      */
-    public static synchronized boolean remove(Map<String, String> theOneToPop) {
-        var result = REPLACEMENT_ENV.remove(theOneToPop);
+    public static boolean remove(Map<String, String> theOneToPop) {
+        Map<String, String> current;
+        Map<String, String> updated;
+        do {
+            current = REPLACEMENT_ENV.get();
+            updated = without(current, theOneToPop);
+        } while (updated != null && !REPLACEMENT_ENV.compareAndSet(current, updated));
+
+        if (updated != null) {
+            ProcessEnvironmentInterceptor.deactivate();
+        }
+        unhookIfInactive();
+
+        return updated != null;
+    }
+
+    // the global layers with the layer for the given map taken out - the layers above it are copied onto the
+    // layers below it, so readers of the previous layers are unaffected. Null if the map is not connected
+    private static Map<String, String> without(Map<String, String> top, Map<String, String> overlay) {
+        if (!(top instanceof LayeredEnvironment)) {
+            return null;
+        }
+        LayeredEnvironment layer = (LayeredEnvironment) top;
+        if (layer.getOverlay() == overlay) {
+            return layer.getUnderlying();
+        }
+        Map<String, String> below = without(layer.getUnderlying(), overlay);
+        return below == null ? null : new LayeredEnvironment(layer.getOverlay(), layer.getRemoved(), below);
+    }
+
+    // the layer for the given map among the layers a thread sees, or null if it isn't one of them
+    private static LayeredEnvironment find(Map<String, String> top, Map<String, String> overlay) {
+        Map<String, String> candidate = top;
+        while (candidate instanceof LayeredEnvironment) {
+            LayeredEnvironment layer = (LayeredEnvironment) candidate;
+            if (layer.getOverlay() == overlay) {
+                return layer;
+            }
+            candidate = layer.getUnderlying();
+        }
+        return null;
+    }
 
-        if (!REPLACEMENT_ENV.empty()) {
-            ProcessEnvironmentInterceptor.setEnv(REPLACEMENT_ENV.peek());
+    // remove one of the current thread's layers from its stack, joining the layers either side of it
+    private static boolean unlink(LayeredEnvironment found) {
+        for (Map<String, String> layer : ProcessEnvironmentInterceptor.getThreadEnvStack()) {
+            LayeredEnvironment above = (LayeredEnvironment) layer;
+            if (above.getUnderlying() == found) {
+                above.setUnderlying(found.getUnderlying());
+            }
+        }
+        return ProcessEnvironmentInterceptor.removeThreadEnv(found);
+    }
+
+    // redefine ProcessEnvironment to use the interceptor
+    private static void intercept() {
+        DynamicType.Builder<?> builder = new ByteBuddy().redefine(PROCESS_ENVIRONMENT);
+        if (INTERCEPTION_ADVICE.equals(System.getProperty(INTERCEPTION_PROPERTY))) {
+            builder = ProcessEnvironmentAdvice.apply(builder);
         } else {
-            ProcessEnvironmentInterceptor.setEnv(ORIGINAL_ENV);
+            builder = builder
+                .method(isStatic().and(namedOneOf("getenv", "environment", "toEnvironmentBlock")))
+                .intercept(MethodDelegation.to(ProcessEnvironmentInterceptor.class));
+        }
+        builder.make()
+            .load(
+                EnvironmentVariableMocker.class.getClassLoader(),
+                ClassReloadingStrategy.of(INSTRUMENTATION));
+        hooked = true;
+    }
+
+    // when unhooking is enabled, intercept again if the original ProcessEnvironment was restored
+    private static void rehook() {
+        if (UNHOOK_WHEN_INACTIVE) {
+            synchronized (HOOK_LOCK) {
+                if (!hooked) {
+                    intercept();
+                }
+            }
         }
+    }
 
-        return result;
+    // when unhooking is enabled, restore the original ProcessEnvironment if nothing is mocked - apart from
+    // converting environments for child processes, which builders created while mocking still need
+    private static void unhookIfInactive() {
+        if (UNHOOK_WHEN_INACTIVE) {
+            synchronized (HOOK_LOCK) {
+                if (hooked && !ProcessEnvironmentInterceptor.isActive()) {
+                    ProcessEnvironmentAdvice.applyToEnvironmentBlock(new ByteBuddy().redefine(PROCESS_ENVIRONMENT))
+                        .make()
+                        .load(
+                            EnvironmentVariableMocker.class.getClassLoader(),
+                            ClassReloadingStrategy.of(INSTRUMENTATION));
+                    hooked = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * The environment shared by all threads, which is always the current top of the global stack. This is
+     * what the interceptor uses, as well as being the base for any thread's own environment.
+     */
+    private static final class GlobalEnvironment extends AbstractMap<String, String> {
+        @Override
+        public String get(Object key) {
+            return REPLACEMENT_ENV.get().get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return REPLACEMENT_ENV.get().containsKey(key);
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return REPLACEMENT_ENV.get().entrySet();
+        }
     }
 }
@@ -7,6 +7,9 @@ import uk.org.webcompere.systemstubs.resource.SingularTestResource;
 
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.util.Collections.emptyMap;
 import static uk.org.webcompere.systemstubs.properties.PropertiesUtils.toStringMap;
@@ -33,8 +36,11 @@ import static uk.org.webcompere.systemstubs.properties.PropertiesUtils.toStringM
  * @since 1.0.0
  */
 public class EnvironmentVariables extends SingularTestResource implements NameValuePairSetter<EnvironmentVariables> {
+    private static final AtomicReference<CompletableFuture<Void>> INSTALLATION = new AtomicReference<>();
+
     private final Map<String, String> variables;
     private final Set<String> toRemove = new HashSet<>();
+    private boolean scopedToThread;
 
     /**
      * Default constructor with an empty set of environment variables. Use {@link #set(String, String)} to
@@ -96,7 +102,9 @@ public class EnvironmentVariables extends SingularTestResource implements NameVa
      */
     public EnvironmentVariables and(String name, String value) {
         validateNotSet(name, value);
-        return new EnvironmentVariables(variables).set(name, value);
+        return new EnvironmentVariables(variables)
+            .setScopedToThread(scopedToThread)
+            .set(name, value);
     }
 
     /**
@@ -120,6 +128,98 @@ public class EnvironmentVariables extends SingularTestResource implements NameVa
         return this;
     }
 
+    /**
+     * Choose whether the variables apply to the whole JVM, which is the default, or only to the thread which
+     * activates this object and the threads that it creates while active. Thread scoped environment variables
+     * allow tests with different environments to run in parallel in the same JVM. The activation and
+     * deactivation must happen on the same thread. Tasks given to an existing thread pool can be
+     * wrapped with {@link #withThreadEnvironment(Runnable)} to see the environment of the thread submitting them.
+     * Workers of a <code>ForkJoinPool</code>, such as those running tests in parallel, never inherit the
+     * variables, even when started while they're active, as they go on to run other tests' tasks. Threads of other
+     * pools created while active do inherit them, for every task they run until this is deactivated, so
+     * shouldn't be shared with tests that aren't meant to see them.
+     * @param scopedToThread true to limit the variables to the current thread
+     * @return this for fluent calling
+     * @throws IllegalStateException if called while active
+     * @since 2.1.9
+     */
+    public EnvironmentVariables setScopedToThread(boolean scopedToThread) {
+        if (isActive()) {
+            throw new IllegalStateException("Cannot change the scope of environment variables while active");
+        }
+        this.scopedToThread = scopedToThread;
+        return this;
+    }
+
+    /**
+     * Are these environment variables applied only to the activating thread?
+     * @return true if scoped to a thread
+     * @since 2.1.9
+     */
+    public boolean isScopedToThread() {
+        return scopedToThread;
+    }
+
+    /**
+     * Wrap a task so that, whichever thread runs it, it sees the same thread scoped environment variables
+     * as the current thread. See {@link #setScopedToThread(boolean)}.
+     * @param runnable the task to wrap
+     * @return a task which runs with the current thread's environment variables
+     * @since 2.1.9
+     */
+    public static Runnable withThreadEnvironment(Runnable runnable) {
+        return EnvironmentVariableMocker.withThreadEnvironment(runnable);
+    }
+
+    /**
+     * Wrap a task so that, whichever thread runs it, it sees the same thread scoped environment variables
+     * as the current thread. See {@link #setScopedToThread(boolean)}.
+     * @param callable the task to wrap
+     * @param <T> the type of result
+     * @return a task which runs with the current thread's environment variables
+     * @since 2.1.9
+     */
+    public static <T> Callable<T> withThreadEnvironment(Callable<T> callable) {
+        return EnvironmentVariableMocker.withThreadEnvironment(callable);
+    }
+
+    /**
+     * Intercept the JVM's environment now. This is otherwise done by the first use of environment variable
+     * mocking, which adds the time it takes, for attaching an agent and redefining classes, to whichever
+     * test happens to go first.
+     * @since 2.1.9
+     */
+    public static void install() {
+        EnvironmentVariableMocker.install();
+    }
+
+    /**
+     * Start intercepting the JVM's environment on a background thread, so that it can overlap with other
+     * work, such as test discovery. Anything using environment variable mocking meanwhile waits for it
+     * to finish. Only the first call starts the work.
+     * @return a future which completes when the environment is intercepted, or completes exceptionally
+     *     if it cannot be
+     * @since 2.1.9
+     */
+    public static CompletableFuture<Void> installInBackground() {
+        CompletableFuture<Void> installation = new CompletableFuture<>();
+        if (!INSTALLATION.compareAndSet(null, installation)) {
+            return INSTALLATION.get();
+        }
+
+        Thread thread = new Thread(() -> {
+            try {
+                install();
+                installation.complete(null);
+            } catch (Throwable e) {
+                installation.completeExceptionally(e);
+            }
+        }, "system-stubs-environment-install");
+        thread.setDaemon(true);
+        thread.start();
+        return installation;
+    }
+
     /**
      * Return a copy of all the variables set for testing
      * @return a copy of the map
@@ -148,11 +248,19 @@ public class EnvironmentVariables extends SingularTestResource implements NameVa
 
     @Override
     protected void doSetup() {
-        EnvironmentVariableMocker.connect(variables, toRemove);
+        if (scopedToThread) {
+            EnvironmentVariableMocker.connectToThread(variables, toRemove);
+        } else {
+            EnvironmentVariableMocker.connect(variables, toRemove);
+        }
     }
 
     @Override
     protected void doTeardown() {
-        EnvironmentVariableMocker.remove(variables);
+        if (scopedToThread) {
+            EnvironmentVariableMocker.removeFromThread(variables);
+        } else {
+            EnvironmentVariableMocker.remove(variables);
+        }
     }
 }
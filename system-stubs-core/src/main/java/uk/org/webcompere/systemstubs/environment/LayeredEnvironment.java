@@ -0,0 +1,152 @@
+package uk.org.webcompere.systemstubs.environment;
+
+import java.util.*;
+
+/**
+ * One layer of mocked environment variables. This holds only the variables which the layer changes or removes,
+ * and any other lookup falls through to the layer underneath, ending with the original environment. Activating
+ * and deactivating a layer costs nothing in proportion to the size of the environment. The combined variables,
+ * needed to list or count them all, are worked out once and kept until this layer or one beneath it changes.
+ * The overlay and set of variables to remove are held by reference, so changes to them take
+ * effect immediately.
+ */
+class LayeredEnvironment extends AbstractMap<String, String> {
+    private final Map<String, String> overlay;
+    private final Set<String> removed;
+    private final Thread owner;
+    private volatile Map<String, String> underlying;
+    private volatile Flattened flattened;
+
+    /**
+     * Construct the layer
+     * @param overlay the variables changed by this layer - a <code>null</code> value hides a variable
+     * @param removed variables hidden by this layer, unless they're also in the overlay
+     * @param underlying the layer underneath
+     */
+    LayeredEnvironment(Map<String, String> overlay, Set<String> removed, Map<String, String> underlying) {
+        this(overlay, removed, underlying, null);
+    }
+
+    /**
+     * Construct a layer which belongs to one thread
+     * @param overlay the variables changed by this layer - a <code>null</code> value hides a variable
+     * @param removed variables hidden by this layer, unless they're also in the overlay
+     * @param underlying the layer underneath
+     * @param owner the thread which connected the layer, and is the only one which can remove it, or
+     *              <code>null</code> for a global layer
+     */
+    LayeredEnvironment(Map<String, String> overlay, Set<String> removed, Map<String, String> underlying,
+                       Thread owner) {
+        this.overlay = overlay;
+        this.removed = removed;
+        this.underlying = underlying;
+        this.owner = owner;
+    }
+
+    /**
+     * The overlay map this layer was constructed with
+     * @return the overlay
+     */
+    Map<String, String> getOverlay() {
+        return overlay;
+    }
+
+    /**
+     * The variables this layer was constructed to remove
+     * @return the set of removed variables
+     */
+    Set<String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * The thread which connected this layer
+     * @return the owning thread, or <code>null</code> for a global layer
+     */
+    Thread getOwner() {
+        return owner;
+    }
+
+    /**
+     * The layer underneath this one
+     * @return the underlying layer
+     */
+    Map<String, String> getUnderlying() {
+        return underlying;
+    }
+
+    /**
+     * Change the layer underneath - used when a layer is removed from the middle of a thread's stack
+     * @param underlying the new layer underneath this one
+     */
+    void setUnderlying(Map<String, String> underlying) {
+        this.underlying = underlying;
+    }
+
+    @Override
+    public String get(Object key) {
+        String value = overlay.get(key);
+        if (value != null || overlay.containsKey(key)) {
+            return value;
+        }
+        if (removed.contains(key)) {
+            return null;
+        }
+        return underlying.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return flatten().entrySet();
+    }
+
+    // the variables of this layer and those beneath it, worked out again only if something has changed
+    private Map<String, String> flatten() {
+        Set<Entry<String, String>> below = underlying.entrySet();
+        Flattened current = flattened;
+        if (current == null || !current.isFor(below, overlay, removed)) {
+            current = new Flattened(below, overlay, removed);
+            flattened = current;
+        }
+        return current.variables;
+    }
+
+    /**
+     * The combined variables of a layer, along with what they were made from. The entry set of the map beneath
+     * stands for its contents, as a layer's entry set is replaced whenever its variables change. A map beneath
+     * which isn't a layer, such as the original environment, is expected not to change.
+     */
+    private static final class Flattened {
+        private final Set<Entry<String, String>> below;
+        private final Map<String, String> overlay;
+        private final Set<String> removed;
+        private final Map<String, String> variables;
+
+        Flattened(Set<Entry<String, String>> below, Map<String, String> overlay, Set<String> removed) {
+            this.below = below;
+            this.overlay = new HashMap<>(overlay);
+            this.removed = new HashSet<>(removed);
+
+            Map<String, String> result = new HashMap<>();
+            below.forEach(entry -> result.put(entry.getKey(), entry.getValue()));
+            this.removed.forEach(result::remove);
+            this.overlay.forEach((name, value) -> {
+                if (value == null) {
+                    result.remove(name);
+                } else {
+                    result.put(name, value);
+                }
+            });
+            this.variables = Collections.unmodifiableMap(result);
+        }
+
+        boolean isFor(Set<Entry<String, String>> below, Map<String, String> overlay, Set<String> removed) {
+            return this.below == below && this.overlay.equals(overlay) && this.removed.equals(removed);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package uk.org.webcompere.systemstubs.environment;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.dynamic.DynamicType;
+import uk.org.webcompere.systemstubs.internal.ProcessEnvironmentInterceptor;
+
+import java.util.Map;
+
+import static net.bytebuddy.matcher.ElementMatchers.isStatic;
+import static net.bytebuddy.matcher.ElementMatchers.named;
+import static net.bytebuddy.matcher.ElementMatchers.takesArguments;
+
+/**
+ * Advice inlined into the methods of <code>ProcessEnvironment</code>, as an alternative to replacing them with
+ * delegation to the {@link ProcessEnvironmentInterceptor}. Each method keeps its original code, which runs
+ * whenever no mocking is active, with a single check in front of it to divert to the interceptor when
+ * mocking is active. The advice code is copied into <code>ProcessEnvironment</code>, so may only refer to
+ * classes in the boot loader.
+ */
+@SuppressFBWarnings(value = {"IP_PARAMETER_IS_DEAD_BUT_OVERWRITTEN", "DLS_DEAD_LOCAL_STORE"},
+    justification = "Advice sets the return value by assigning to the parameter")
+class ProcessEnvironmentAdvice {
+
+    /**
+     * Add the advice to the methods of <code>ProcessEnvironment</code>. Methods that don't exist on the
+     * current platform are not matched, and so are left alone.
+     * @param builder the builder redefining <code>ProcessEnvironment</code>
+     * @return the builder with the advice added
+     */
+    static DynamicType.Builder<?> apply(DynamicType.Builder<?> builder) {
+        return applyToEnvironmentBlock(builder
+            .visit(Advice.to(Getenv.class)
+                .on(isStatic().and(named("getenv")).and(takesArguments(0))))
+            .visit(Advice.to(GetenvByName.class)
+                .on(isStatic().and(named("getenv")).and(takesArguments(1))))
+            .visit(Advice.to(Environment.class)
+                .on(isStatic().and(named("environment")).and(takesArguments(0)))));
+    }
+
+    /**
+     * Add the advice to the methods which convert the environment for a child process only. These must stay
+     * intercepted while nothing is mocked, as a <code>ProcessBuilder</code> created while mocking holds a
+     * map which the original methods can't convert.
+     * @param builder the builder redefining <code>ProcessEnvironment</code>
+     * @return the builder with the advice added
+     */
+    static DynamicType.Builder<?> applyToEnvironmentBlock(DynamicType.Builder<?> builder) {
+        return builder
+            .visit(Advice.to(ToEnvironmentBlock.class)
+                .on(isStatic().and(named("toEnvironmentBlock")).and(takesArguments(2))))
+            .visit(Advice.to(ToWindowsEnvironmentBlock.class)
+                .on(isStatic().and(named("toEnvironmentBlock")).and(takesArguments(1))));
+    }
+
+    static class Getenv {
+        @Advice.OnMethodEnter(skipOn = Advice.OnNonDefaultValue.class)
+        static boolean enter() {
+            return ProcessEnvironmentInterceptor.isActive();
+        }
+
+        @Advice.OnMethodExit
+        static void exit(@Advice.Enter boolean mocked,
+                         @Advice.Return(readOnly = false) Map<String, String> value) {
+            if (mocked) {
+                value = ProcessEnvironmentInterceptor.getenv();
+            }
+        }
+    }
+
+    static class GetenvByName {
+        @Advice.OnMethodEnter(skipOn = Advice.OnNonDefaultValue.class)
+        static boolean enter() {
+            return ProcessEnvironmentInterceptor.isActive();
+        }
+
+        @Advice.OnMethodExit
+        static void exit(@Advice.Enter boolean mocked,
+                         @Advice.Argument(0) String name,
+                         @Advice.Return(readOnly = false) String value) {
+            if (mocked) {
+                value = ProcessEnvironmentInterceptor.getenv(name);
+            }
+        }
+    }
+
+    static class Environment {
+        @Advice.OnMethodEnter(skipOn = Advice.OnNonDefaultValue.class)
+        static boolean enter() {
+            return ProcessEnvironmentInterceptor.isActive();
+        }
+
+        @Advice.OnMethodExit
+        static void exit(@Advice.Enter boolean mocked,
+                         @Advice.Return(readOnly = false) Map<String, String> value) {
+            if (mocked) {
+                value = ProcessEnvironmentInterceptor.environment();
+            }
+        }
+    }
+
+    static class ToEnvironmentBlock {
+        @Advice.OnMethodEnter(skipOn = Advice.OnNonDefaultValue.class)
+        static boolean enter(@Advice.Argument(0) Map<String, String> map) {
+            return ProcessEnvironmentInterceptor.isMocked(map);
+        }
+
+        @Advice.OnMethodExit
+        static void exit(@Advice.Enter boolean mocked,
+                         @Advice.Argument(0) Map<String, String> map,
+                         @Advice.Argument(1) int[] envc,
+                         @Advice.Return(readOnly = false) byte[] value) {
+            if (mocked) {
+                value = ProcessEnvironmentInterceptor.toEnvironmentBlock(map, envc);
+            }
+        }
+    }
+
+    static class ToWindowsEnvironmentBlock {
+        @Advice.OnMethodEnter(skipOn = Advice.OnNonDefaultValue.class)
+        static boolean enter(@Advice.Argument(0) Map<String, String> map) {
+            return ProcessEnvironmentInterceptor.isMocked(map);
+        }
+
+        @Advice.OnMethodExit
+        static void exit(@Advice.Enter boolean mocked,
+                         @Advice.Argument(0) Map<String, String> map,
+                         @Advice.Return(readOnly = false) String value) {
+            if (mocked) {
+                value = ProcessEnvironmentInterceptor.toEnvironmentBlock(map);
+            }
+        }
+    }
+}
@@ -33,4 +33,10 @@ public class SystemErr extends SystemStreamBase {
     public SystemErr() {
         super(System::setErr, () -> System.err);
     }
+
+    @Override
+    public SystemErr buffered(int bufferSize) {
+        super.buffered(bufferSize);
+        return this;
+    }
 }
@@ -7,6 +7,7 @@ import uk.org.webcompere.systemstubs.stream.output.OutputFactory;
 import uk.org.webcompere.systemstubs.stream.output.TapStream;
 
 import java.io.OutputStream;
+import java.util.stream.Stream;
 
 import static java.util.Arrays.asList;
 
@@ -60,6 +61,21 @@ public class SystemErrAndOut implements Output, TestResource {
         return systemErr.getText();
     }
 
+    @Override
+    public Stream<String> getLines() {
+        return systemErr.getLines();
+    }
+
+    @Override
+    public String getLine(int index) {
+        return systemErr.getLine(index);
+    }
+
+    @Override
+    public int lineCount() {
+        return systemErr.lineCount();
+    }
+
     @Override
     public void clear() {
         // only clear one of them as they share the same output
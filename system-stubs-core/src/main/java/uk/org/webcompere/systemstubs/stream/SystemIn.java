@@ -6,6 +6,7 @@ import uk.org.webcompere.systemstubs.stream.input.*;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
 
 import static java.lang.System.setIn;
 
@@ -45,6 +46,15 @@ public class SystemIn extends SingularTestResource {
         this(new DecoratingAltStream(inputStream));
     }
 
+    /**
+     * Construct with a file to provide as input, read from a memory mapping using {@link MappedFileAltStream}
+     * @param file the file to route to System in
+     * @since 2.1.9
+     */
+    public SystemIn(Path file) {
+        this(new MappedFileAltStream(file));
+    }
+
     /**
      * Construct with an {@link AltInputStream} - e.g. a {@link TextAltStream}
      * or custom provider of input.
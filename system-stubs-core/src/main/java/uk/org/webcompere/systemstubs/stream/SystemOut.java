@@ -32,4 +32,10 @@ public class SystemOut extends SystemStreamBase {
     public SystemOut() {
         super(System::setOut, () -> System.out);
     }
+
+    @Override
+    public SystemOut buffered(int bufferSize) {
+        super.buffered(bufferSize);
+        return this;
+    }
 }
@@ -1,15 +1,19 @@
 package uk.org.webcompere.systemstubs.stream;
 
 import uk.org.webcompere.systemstubs.resource.SingularTestResource;
+import uk.org.webcompere.systemstubs.stream.output.NoopPrintStream;
+import uk.org.webcompere.systemstubs.stream.output.NoopStream;
 import uk.org.webcompere.systemstubs.stream.output.Output;
 import uk.org.webcompere.systemstubs.stream.output.OutputFactory;
 import uk.org.webcompere.systemstubs.stream.output.TapStream;
 
+import java.io.BufferedOutputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import static java.nio.charset.Charset.defaultCharset;
 
@@ -17,7 +21,9 @@ import static java.nio.charset.Charset.defaultCharset;
  * A general purpose replacement for a system stream. Uses an {@link Output} object
  * in place of the intended stream while active. Presents methods to access the output.
  * When active converts the output into a {@link PrintStream} and applies it to the
- * environment.
+ * environment. By default every <code>println</code> is flushed through to the output. With
+ * {@link #buffered(int)}, output is instead collected in a buffer, which is flushed whenever it fills, and
+ * before the text is read, the output is cleared, or the stream is torn down.
  * @since 1.0.0
  */
 public class SystemStreamBase extends SingularTestResource implements Output<OutputStream> {
@@ -30,6 +36,9 @@ public class SystemStreamBase extends SingularTestResource implements Output<Out
     protected Consumer<PrintStream> printStreamSetter;
     protected Supplier<PrintStream> printStreamGetter;
 
+    private int bufferSize;
+    private PrintStream activePrintStream;
+
     protected <T extends OutputStream> SystemStreamBase(Consumer<PrintStream> printStreamSetter,
                                                         Supplier<PrintStream> printStreamGetter) {
         this(new TapStream(), printStreamSetter, printStreamGetter);
@@ -50,17 +59,36 @@ public class SystemStreamBase extends SingularTestResource implements Output<Out
     }
 
     /**
-     * Convert an output stream to a {@link PrintStream}
+     * Convert an output stream to a {@link PrintStream}. A {@link NoopStream} becomes a {@link NoopPrintStream},
+     * which discards what's printed without formatting or encoding it.
      * @param outputStream the output stream to use
      * @return a {@link PrintStream} that can be written to
      * @throws UnsupportedEncodingException on errors constructing the stream (unlikely)
      */
     public static PrintStream wrap(OutputStream outputStream) throws UnsupportedEncodingException {
+        if (outputStream.getClass() == NoopStream.class) {
+            return new NoopPrintStream();
+        }
         return new PrintStream(outputStream,
             AUTO_FLUSH,
             DEFAULT_ENCODING);
     }
 
+    /**
+     * Buffer the output, rather than flushing it to the {@link Output} on every line. This suits outputs
+     * that are slow to write to, such as files or the original console, when a lot is printed.
+     * @param bufferSize the size of the buffer in bytes, or <code>0</code> to flush every line
+     * @return this for fluent calling
+     * @since 2.1.9
+     */
+    public SystemStreamBase buffered(int bufferSize) {
+        if (bufferSize < 0) {
+            throw new IllegalArgumentException("Buffer size cannot be negative");
+        }
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
     @Override
     protected void doSetup() throws Exception {
         // in case this is being reused, it is cleared on setup
@@ -69,7 +97,8 @@ public class SystemStreamBase extends SingularTestResource implements Output<Out
         originalStream = printStreamGetter.get();
         try {
             currentTarget = targetFactory.apply(originalStream);
-            printStreamSetter.accept(wrap(currentTarget.getOutputStream()));
+            activePrintStream = createPrintStream(currentTarget.getOutputStream());
+            printStreamSetter.accept(activePrintStream);
         } catch (UnsupportedEncodingException e) {
             throw new StreamException("Cannot wrap stream: " + e.getMessage(), e);
         }
@@ -78,6 +107,8 @@ public class SystemStreamBase extends SingularTestResource implements Output<Out
     @Override
     protected void doTeardown() throws Exception {
         printStreamSetter.accept(originalStream);
+        flushBuffer();
+        activePrintStream = null;
 
         // for outputs like files, that need to be closed
         currentTarget.closeOutput();
@@ -85,11 +116,31 @@ public class SystemStreamBase extends SingularTestResource implements Output<Out
 
     @Override
     public String getText() {
+        flushBuffer();
         return currentTarget.getText();
     }
 
+    @Override
+    public Stream<String> getLines() {
+        flushBuffer();
+        return currentTarget.getLines();
+    }
+
+    @Override
+    public String getLine(int index) {
+        flushBuffer();
+        return currentTarget.getLine(index);
+    }
+
+    @Override
+    public int lineCount() {
+        flushBuffer();
+        return currentTarget.lineCount();
+    }
+
     @Override
     public void clear() {
+        flushBuffer();
         if (currentTarget != null) {
             currentTarget.clear();
         }
@@ -102,4 +153,18 @@ public class SystemStreamBase extends SingularTestResource implements Output<Out
         }
         return currentTarget.getOutputStream();
     }
+
+    private PrintStream createPrintStream(OutputStream target) throws UnsupportedEncodingException {
+        if (bufferSize == 0 || target.getClass() == NoopStream.class) {
+            return wrap(target);
+        }
+        return new PrintStream(new BufferedOutputStream(target, bufferSize), !AUTO_FLUSH, DEFAULT_ENCODING);
+    }
+
+    private void flushBuffer() {
+        PrintStream printStream = activePrintStream;
+        if (printStream != null && bufferSize > 0) {
+            printStream.flush();
+        }
+    }
 }
@@ -0,0 +1,156 @@
+package uk.org.webcompere.systemstubs.stream.input;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.function.LongFunction;
+import java.util.stream.LongStream;
+import java.util.zip.CRC32;
+
+/**
+ * Provides input generated on demand, for load testing code which reads from <code>System.in</code>. Each record
+ * is produced by a generator function, only when the reader has used up the previous one, so the input can be
+ * as large as needed without being held in memory. The input ends when the generator returns <code>null</code>,
+ * or when the maximum number of records or bytes has been reached. A checksum of the bytes read so far can
+ * be compared with one calculated by the code under test, to confirm it read all the input.
+ * @since 2.1.9
+ */
+public class GeneratedAltStream extends LinesAltStream {
+    private final CRC32 checksum = new CRC32();
+    private long maxRecords = Long.MAX_VALUE;
+    private long maxBytes = Long.MAX_VALUE;
+    private long recordsGenerated;
+    private long bytesRead;
+
+    /**
+     * Construct with a generator of lines
+     * @param generator the function to produce the line for each record number, counting from zero, or
+     *                  <code>null</code> to end the input. A line break is added to each line
+     */
+    public GeneratedAltStream(LongFunction<String> generator) {
+        this(generator, true);
+    }
+
+    /**
+     * Construct with a generator of records
+     * @param generator the function to produce the text of each record number, counting from zero, or
+     *                  <code>null</code> to end the input
+     * @param addLineBreak whether to add a line break after each record
+     */
+    public GeneratedAltStream(LongFunction<String> generator, boolean addLineBreak) {
+        this(new RecordSource(generator), addLineBreak);
+    }
+
+    private GeneratedAltStream(RecordSource source, boolean addLineBreak) {
+        super(LongStream.iterate(0, i -> i + 1)
+            .mapToObj(source)
+            .takeWhile(Objects::nonNull), addLineBreak);
+        source.owner = this;
+    }
+
+    /**
+     * Limit the number of records generated
+     * @param maxRecords the number of records after which the input ends
+     * @return this for fluent calling
+     */
+    public GeneratedAltStream maxRecords(long maxRecords) {
+        this.maxRecords = maxRecords;
+        return this;
+    }
+
+    /**
+     * Limit the number of bytes provided. The last record is cut short if it goes beyond the limit
+     * @param maxBytes the number of bytes after which the input ends
+     * @return this for fluent calling
+     */
+    public GeneratedAltStream maxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * The number of records generated so far
+     * @return the number of records
+     */
+    public long getRecordsGenerated() {
+        return recordsGenerated;
+    }
+
+    /**
+     * The number of bytes read so far, including any skipped
+     * @return the number of bytes
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * The CRC32 checksum of the bytes read so far, including any skipped
+     * @return the checksum
+     */
+    public long getChecksum() {
+        return checksum.getValue();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (bytesRead >= maxBytes) {
+            return -1;
+        }
+        int next = super.read();
+        if (next != -1) {
+            checksum.update(next);
+            bytesRead++;
+        }
+        return next;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        if (bytesRead >= maxBytes) {
+            return -1;
+        }
+        int read = super.read(b, off, (int) Math.min(len, maxBytes - bytesRead));
+        if (read > 0) {
+            checksum.update(b, off, read);
+            bytesRead += read;
+        }
+        return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (bytesRead >= maxBytes) {
+            // without asking for the next record, which would be counted as generated
+            return 0;
+        }
+        return (int) Math.min(super.available(), maxBytes - bytesRead);
+    }
+
+    /**
+     * Calls the generator for the records, while under the limit
+     */
+    private static class RecordSource implements LongFunction<String> {
+        private final LongFunction<String> generator;
+        private GeneratedAltStream owner;
+
+        RecordSource(LongFunction<String> generator) {
+            this.generator = Objects.requireNonNull(generator);
+        }
+
+        @Override
+        public String apply(long index) {
+            if (index >= owner.maxRecords) {
+                return null;
+            }
+            String record = generator.apply(index);
+            if (record != null) {
+                owner.recordsGenerated++;
+            }
+            return record;
+        }
+    }
+}
@@ -1,19 +1,33 @@
 package uk.org.webcompere.systemstubs.stream.input;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.Arrays;
 import java.util.Iterator;
-import java.util.stream.IntStream;
+import java.util.Objects;
 import java.util.stream.Stream;
 
 import static java.lang.System.lineSeparator;
 
 /**
- * Provides lines of text from a source stream as an input stream
+ * Provides lines of text from a source stream as an input stream. The lines are taken from the source one at a
+ * time, as they're needed, and each is encoded into a buffer which is reused for the next.
  */
 public class LinesAltStream extends AltInputStream {
-    private Iterator<Byte> byteIterator;
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private final Iterator<String> lines;
+    private final String lineBreak;
+    private final CharsetEncoder encoder = Charset.defaultCharset().newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    // the current line, encoded, ready to read
+    private ByteBuffer line = ByteBuffer.allocate(INITIAL_BUFFER_SIZE).flip();
 
     /**
      * Given a stream of lines, supply them as an input stream
@@ -37,20 +51,67 @@ public class LinesAltStream extends AltInputStream {
      * @param addLineBreak whether to add a line break
      */
     public LinesAltStream(Stream<String> lines, boolean addLineBreak) {
-        Stream<String> source = addLineBreak ? lines.flatMap(line -> Stream.of(line, lineSeparator())) : lines;
-
-        byteIterator = source.flatMap(LinesAltStream::toByteArrayStream)
-            .iterator();
+        this.lines = lines.iterator();
+        this.lineBreak = addLineBreak ? lineSeparator() : "";
     }
 
     @Override
     public int read() throws IOException {
-        return byteIterator.hasNext() ? byteIterator.next() : -1;
+        return nextLineIfNeeded() ? line.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        int read = 0;
+        while (read < len && nextLineIfNeeded()) {
+            int toCopy = Math.min(len - read, line.remaining());
+            line.get(b, off + read, toCopy);
+            read += toCopy;
+        }
+        return read == 0 ? -1 : read;
+    }
+
+    /**
+     * The bytes of the current line that are still to be read. This is only zero at the end of the lines
+     * @return the number of bytes that can be read without taking another line
+     */
+    @Override
+    public int available() throws IOException {
+        return nextLineIfNeeded() ? line.remaining() : 0;
+    }
+
+    // make sure there's something to read from the current line, unless there are no more lines
+    private boolean nextLineIfNeeded() {
+        while (!line.hasRemaining()) {
+            if (!lines.hasNext()) {
+                return false;
+            }
+            encode(lines.next());
+        }
+        return true;
+    }
+
+    private void encode(String text) {
+        line.clear();
+        encoder.reset();
+        CharBuffer[] parts = {CharBuffer.wrap(text), CharBuffer.wrap(lineBreak)};
+        for (int i = 0; i < parts.length; i++) {
+            while (encoder.encode(parts[i], line, i == parts.length - 1).isOverflow()) {
+                grow();
+            }
+        }
+        while (encoder.flush(line).isOverflow()) {
+            grow();
+        }
+        line.flip();
     }
 
-    private static Stream<Byte> toByteArrayStream(String s) {
-        byte[] bytes = s.getBytes(Charset.defaultCharset());
-        return IntStream.range(0, bytes.length)
-            .mapToObj(i -> bytes[i]);
+    private void grow() {
+        line = ByteBuffer.allocate(line.capacity() * 2)
+            .put(line.flip());
     }
 }
@@ -0,0 +1,127 @@
+package uk.org.webcompere.systemstubs.stream.input;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Objects;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Provides the contents of a file as an input stream, reading them from a memory mapping of the file rather than
+ * copying them through a heap buffer. Large files are mapped a region at a time, so there's no limit on the
+ * size of the file. The file is opened on the first read, and is closed with the stream.
+ * <p>
+ * A mapping is only released when it is garbage collected, so on Windows, the file can't be deleted
+ * straight after it's read.
+ * </p>
+ * @since 2.1.9
+ */
+public class MappedFileAltStream extends AltInputStream {
+    private static final long DEFAULT_REGION_SIZE = 256L * 1024 * 1024;
+
+    private final Path file;
+    private final long regionSize;
+    private FileChannel channel;
+    private boolean closed;
+    private long size;
+    private long position;
+
+    // the mapping of the region of the file which includes the position
+    private MappedByteBuffer region;
+    private long regionStart;
+
+    /**
+     * Construct with the file to read
+     * @param file the file providing the input
+     */
+    public MappedFileAltStream(Path file) {
+        this(file, DEFAULT_REGION_SIZE);
+    }
+
+    MappedFileAltStream(Path file, long regionSize) {
+        this.file = Objects.requireNonNull(file);
+        this.regionSize = regionSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!mapPosition()) {
+            return -1;
+        }
+        position++;
+        return region.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        int read = 0;
+        while (read < len && mapPosition()) {
+            int toCopy = Math.min(len - read, region.remaining());
+            region.get(b, off + read, toCopy);
+            read += toCopy;
+            position += toCopy;
+        }
+        return read == 0 ? -1 : read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        open();
+        long skipped = Math.max(0, Math.min(n, size - position));
+        position += skipped;
+        if (region != null) {
+            long inRegion = position - regionStart;
+            if (inRegion < region.limit()) {
+                region.position((int) inRegion);
+            } else {
+                region = null;
+            }
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        open();
+        return (int) Math.min(Integer.MAX_VALUE, size - position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        region = null;
+        closed = true;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void open() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (channel == null) {
+            channel = FileChannel.open(file, READ);
+            size = channel.size();
+        }
+    }
+
+    // map the region holding the position, if the current one is used up
+    private boolean mapPosition() throws IOException {
+        open();
+        if (position >= size) {
+            return false;
+        }
+        if (region == null || !region.hasRemaining()) {
+            regionStart = position;
+            region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, Math.min(regionSize, size - position));
+        }
+        return true;
+    }
+}
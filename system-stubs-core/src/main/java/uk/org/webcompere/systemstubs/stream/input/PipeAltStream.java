@@ -0,0 +1,243 @@
+package uk.org.webcompere.systemstubs.stream.input;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.lang.System.lineSeparator;
+
+/**
+ * Provides input written by another thread while it's being read, for testing interactive code which reads
+ * from <code>System.in</code>. The test writes to the {@link PipeWriter} from {@link #getWriter()}, and the
+ * bytes are passed to the reader through a fixed size ring buffer, without locking. A reader waiting for input
+ * is woken as soon as it's written, and a writer waiting for the reader to make room is woken as soon as it's
+ * read. The input ends when the writer is closed and everything written has been read.
+ * <p>
+ * The ring buffer is safe for one thread writing while another reads. Writing from more than one thread at
+ * once, or reading from more than one thread at once, needs its own synchronization.
+ * </p>
+ * @since 2.1.9
+ */
+public class PipeAltStream extends AltInputStream {
+    /**
+     * The default size of the buffer between the writer and the reader
+     */
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private final byte[] ring;
+    private final int mask;
+    private final PipeWriter writer = new PipeWriter();
+
+    // the number of bytes ever read, only changed by the reader
+    private final AtomicLong head = new AtomicLong();
+
+    // the number of bytes ever written, only changed by the writer
+    private final AtomicLong tail = new AtomicLong();
+
+    private volatile Thread waitingReader;
+    private volatile Thread waitingWriter;
+    private volatile boolean readerClosed;
+    private volatile boolean writerClosed;
+
+    /**
+     * Construct with the {@link #DEFAULT_CAPACITY}
+     */
+    public PipeAltStream() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Construct with a capacity
+     * @param capacity the size of the buffer in bytes, which is rounded up to a power of two
+     */
+    public PipeAltStream(int capacity) {
+        if (capacity <= 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Capacity must be between 1 and " + MAX_CAPACITY);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.ring = new byte[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * The writer which provides the input
+     * @return the writer
+     */
+    @SuppressFBWarnings("EI_EXPOSE_REP")
+    public PipeWriter getWriter() {
+        return writer;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long readFrom = head.get();
+        if (awaitInput(readFrom) == 0) {
+            return -1;
+        }
+        int next = ring[(int) (readFrom & mask)] & 0xff;
+        head.set(readFrom + 1);
+        LockSupport.unpark(waitingWriter);
+        return next;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        long readFrom = head.get();
+        long available = awaitInput(readFrom);
+        if (available == 0) {
+            return -1;
+        }
+
+        int toRead = (int) Math.min(len, available);
+        int position = (int) (readFrom & mask);
+        int firstPart = Math.min(toRead, ring.length - position);
+        System.arraycopy(ring, position, b, off, firstPart);
+        System.arraycopy(ring, 0, b, off + firstPart, toRead - firstPart);
+        head.set(readFrom + toRead);
+        LockSupport.unpark(waitingWriter);
+        return toRead;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (readerClosed) {
+            throw new IOException("Stream closed");
+        }
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Stop reading. A reader waiting for input fails with "Stream closed", and the writer fails on its next write,
+     * rather than waiting for room which will never come
+     */
+    @Override
+    public void close() {
+        readerClosed = true;
+        LockSupport.unpark(waitingReader);
+        LockSupport.unpark(waitingWriter);
+    }
+
+    // wait until there's something to read, returning how much, or 0 when the writer has closed
+    private long awaitInput(long readFrom) throws IOException {
+        while (true) {
+            if (readerClosed) {
+                throw new IOException("Stream closed");
+            }
+            long available = tail.get() - readFrom;
+            if (available > 0) {
+                return available;
+            }
+            if (writerClosed) {
+                // the writer moves the tail before closing, so this sees its last write
+                return tail.get() - readFrom;
+            }
+
+            // publish that we're waiting, then check again, so a write in between can't be missed
+            waitingReader = Thread.currentThread();
+            if (tail.get() == readFrom && !writerClosed && !readerClosed) {
+                LockSupport.park(this);
+            }
+            waitingReader = null;
+            throwIfInterrupted("Interrupted waiting for input");
+        }
+    }
+
+    private static void throwIfInterrupted(String message) throws InterruptedIOException {
+        if (Thread.interrupted()) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(message);
+        }
+    }
+
+    /**
+     * Writes the input for the {@link PipeAltStream}. Each write is available to the reader as soon as it returns,
+     * so flushing does nothing. When the buffer is full, a write waits for the reader to make room
+     */
+    public class PipeWriter extends OutputStream {
+        private PipeWriter() {
+        }
+
+        /**
+         * Write a line of input, followed by the system line separator
+         * @param line the text of the line
+         * @throws IOException if the pipe is closed, or the wait for room was interrupted
+         */
+        public void writeLine(String line) throws IOException {
+            write((line + lineSeparator()).getBytes(Charset.defaultCharset()));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long writeFrom = tail.get();
+            awaitSpace(writeFrom);
+            ring[(int) (writeFrom & mask)] = (byte) b;
+            tail.set(writeFrom + 1);
+            LockSupport.unpark(waitingReader);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            while (len > 0) {
+                long writeFrom = tail.get();
+                int toWrite = (int) Math.min(len, awaitSpace(writeFrom));
+                int position = (int) (writeFrom & mask);
+                int firstPart = Math.min(toWrite, ring.length - position);
+                System.arraycopy(b, off, ring, position, firstPart);
+                System.arraycopy(b, off + firstPart, ring, 0, toWrite - firstPart);
+                tail.set(writeFrom + toWrite);
+                LockSupport.unpark(waitingReader);
+                off += toWrite;
+                len -= toWrite;
+            }
+        }
+
+        /**
+         * End the input. The reader reaches the end of the stream once it has read everything written
+         */
+        @Override
+        public void close() {
+            writerClosed = true;
+            LockSupport.unpark(waitingReader);
+        }
+
+        // wait until there's room to write, returning how much
+        private long awaitSpace(long writeFrom) throws IOException {
+            while (true) {
+                if (writerClosed) {
+                    throw new IOException("Pipe closed");
+                }
+                if (readerClosed) {
+                    throw new IOException("Pipe closed by the reader");
+                }
+                long free = ring.length - (writeFrom - head.get());
+                if (free > 0) {
+                    return free;
+                }
+
+                // publish that we're waiting, then check again, so a read in between can't be missed
+                waitingWriter = Thread.currentThread();
+                if (writeFrom - head.get() == ring.length && !readerClosed) {
+                    LockSupport.park(this);
+                }
+                waitingWriter = null;
+                throwIfInterrupted("Interrupted waiting for room to write");
+            }
+        }
+    }
+}
@@ -11,12 +11,23 @@ import static java.lang.System.lineSeparator;
 /**
  * Monitor a stream and throw an exception if a read operation occurs after the last
  * character of the stream. This slices the buffer into segments with whole lines in, to avoid
- * read-ahead scanners from hitting the error too soon. Decorator/chain of responsibility pattern.
+ * read-ahead scanners from hitting the error too soon. The decorated stream is read in chunks, which are
+ * scanned for the line separator, with the rest of the chunk kept for the following reads. The exception is
+ * only thrown once everything read has been returned. Decorator/chain of responsibility pattern.
  */
 public class ThrowAtEndStream extends DecoratingAltStream {
+    private static final byte[] LINE_SEPARATOR = lineSeparator().getBytes(Charset.defaultCharset());
+    private static final int CHUNK_SIZE = 8192;
+
     private IOException ioException;
     private RuntimeException runtimeException;
 
+    // bytes read in bulk from the decoratee, but not yet returned
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private int chunkStart;
+    private int chunkEnd;
+    private int separatorMatched;
+
     /**
      * Construct to decorate another stream
      * @param decoratee real source of the bytes
@@ -41,11 +52,12 @@ public class ThrowAtEndStream extends DecoratingAltStream {
 
     @Override
     public int read() throws IOException {
-        int next = super.read();
-        if (next == -1) {
+        if (!fillChunk()) {
             throwException();
         }
-        return next;
+        int next = chunk[chunkStart++];
+        matchSeparator((byte) next);
+        return next & 0xff;
     }
 
     @Override
@@ -66,36 +78,70 @@ public class ThrowAtEndStream extends DecoratingAltStream {
         return readNextLine(buffer, offset, len);
     }
 
+    @Override
+    public int available() {
+        return chunkEnd - chunkStart;
+    }
+
     private int readNextLine(byte[] buffer, int offset, int len) throws IOException {
-        byte[] lineSeparator = lineSeparator().getBytes(Charset.defaultCharset());
-        int writeLocation = offset;
-        while ((writeLocation - offset) < len) {
-            int next = read();
-            if (next == -1) {
-                return writeLocation == offset ? -1 : writeLocation - offset;
+        int written = 0;
+        while (written < len) {
+            if (!fillChunk()) {
+                if (written == 0) {
+                    throwException();
+                }
+                return written;
             }
-            buffer[writeLocation] = (byte)(next & 0xff);
-            writeLocation++;
 
-            if (reachedLineEnd(buffer, offset, writeLocation, lineSeparator)) {
+            int scanEnd = chunkStart + Math.min(len - written, chunkEnd - chunkStart);
+            int lineEnd = findLineEnd(scanEnd);
+            int count = (lineEnd == -1 ? scanEnd : lineEnd) - chunkStart;
+            System.arraycopy(chunk, chunkStart, buffer, offset + written, count);
+            chunkStart += count;
+            written += count;
+            if (lineEnd != -1) {
                 break;
             }
         }
-        return writeLocation - offset;
+        return written;
     }
 
-    private boolean reachedLineEnd(byte[] buffer, int bufferStart, int bufferEnd, byte[] lineSeparator) {
-        if (bufferEnd - bufferStart < lineSeparator.length) {
-            return false;
+    // scan the unread part of the chunk, up to the given index, for the end of a separator
+    private int findLineEnd(int scanEnd) {
+        for (int i = chunkStart; i < scanEnd; i++) {
+            if (matchSeparator(chunk[i])) {
+                return i + 1;
+            }
         }
+        return -1;
+    }
 
-        for (int i = 0; i < lineSeparator.length; i++) {
-            if (buffer[(bufferEnd - lineSeparator.length) + i] != lineSeparator[i]) {
-                return false;
-            }
+    // track how much of the separator the bytes returned so far end with, which may span reads
+    private boolean matchSeparator(byte next) {
+        if (next == LINE_SEPARATOR[separatorMatched]) {
+            separatorMatched++;
+        } else {
+            separatorMatched = next == LINE_SEPARATOR[0] ? 1 : 0;
+        }
+        if (separatorMatched == LINE_SEPARATOR.length) {
+            separatorMatched = 0;
+            return true;
         }
+        return false;
+    }
 
-        return true;
+    // make sure there's something unread in the chunk, reading more from the decoratee if needed
+    private boolean fillChunk() throws IOException {
+        if (chunkStart < chunkEnd) {
+            return true;
+        }
+        int read;
+        do {
+            read = super.read(chunk, 0, chunk.length);
+        } while (read == 0);
+        chunkStart = 0;
+        chunkEnd = Math.max(read, 0);
+        return read > 0;
     }
 
     private void throwException() throws IOException {
@@ -0,0 +1,380 @@
+package uk.org.webcompere.systemstubs.stream.output;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Objects;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * An {@link Output} which passes what's written to another {@link Output} on a background thread, so the
+ * thread writing doesn't wait for a slow target, like a file or the original console. Writes are copied into
+ * a fixed size ring buffer, allocated up front, and the background thread writes them to the target in order.
+ * When the buffer is full, the {@link OverflowPolicy} decides what happens.
+ * <p>
+ * Flushing doesn't wait for the background thread, as a {@link java.io.PrintStream} flushes on every line.
+ * Reading the text, clearing, and closing the output wait for everything written so far to reach the target.
+ * If writing to the target fails, every later write, read and close fails with it, until the output is cleared.
+ * </p>
+ * @since 2.1.9
+ */
+public class AsyncOutput extends OutputStream implements Output<AsyncOutput> {
+    /**
+     * The default size of the buffer between the writer and the target
+     */
+    public static final int DEFAULT_CAPACITY = 1024 * 1024;
+
+    /**
+     * What to do with a write when the buffer is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait for the background thread to make room
+         */
+        BLOCK,
+
+        /**
+         * Discard the whole of the write
+         */
+        DROP,
+
+        /**
+         * Throw an {@link AssertionError}, failing the test
+         */
+        FAIL
+    }
+
+    private final Output<?> target;
+    private final OverflowPolicy overflowPolicy;
+    private final byte[] ring;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+
+    // guarded by lock
+    private long head;
+    private long tail;
+    private boolean closing;
+    private Thread writer;
+    private Throwable failure;
+    private long droppedBytes;
+
+    /**
+     * Construct with the {@link #DEFAULT_CAPACITY}, blocking when the buffer is full
+     * @param target the output to write to in the background
+     */
+    public AsyncOutput(Output<?> target) {
+        this(target, DEFAULT_CAPACITY, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * Construct with a capacity and overflow policy
+     * @param target the output to write to in the background
+     * @param capacity the size of the buffer in bytes
+     * @param overflowPolicy what to do when the buffer is full
+     */
+    @SuppressFBWarnings("EI_EXPOSE_REP2")
+    public AsyncOutput(Output<?> target, int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.target = Objects.requireNonNull(target);
+        this.overflowPolicy = Objects.requireNonNull(overflowPolicy);
+        this.ring = new byte[capacity];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        lock.lock();
+        try {
+            throwIfFailed();
+            if (!hasRoomFor(1)) {
+                return;
+            }
+            startWriter();
+            awaitRoom();
+            ring[(int) (tail % ring.length)] = (byte) b;
+            tail++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        lock.lock();
+        try {
+            throwIfFailed();
+            if (!hasRoomFor(len)) {
+                return;
+            }
+            startWriter();
+            while (len > 0) {
+                awaitRoom();
+                int position = (int) (tail % ring.length);
+                int toCopy = Math.min(len, Math.min(ring.length - position, (int) (ring.length - (tail - head))));
+                System.arraycopy(b, off, ring, position, toCopy);
+                tail += toCopy;
+                off += toCopy;
+                len -= toCopy;
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Does not wait for the background thread, so that flushing on every line doesn't make writing synchronous
+     */
+    @Override
+    public void flush() {
+        // the background thread writes as soon as it can
+    }
+
+    /**
+     * The number of bytes discarded with {@link OverflowPolicy#DROP}
+     * @return the number of bytes dropped
+     */
+    public long getDroppedBytes() {
+        lock.lock();
+        try {
+            return droppedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait for everything written so far to reach the target
+     * @throws IOException if the target failed, or the wait was interrupted
+     */
+    public void drain() throws IOException {
+        lock.lock();
+        try {
+            awaitDrained();
+            throwIfFailed();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String getText() {
+        drainUnchecked();
+        return target.getText();
+    }
+
+    @Override
+    public Stream<String> getLines() {
+        drainUnchecked();
+        return target.getLines();
+    }
+
+    @Override
+    public String getLine(int index) {
+        drainUnchecked();
+        return target.getLine(index);
+    }
+
+    @Override
+    public int lineCount() {
+        drainUnchecked();
+        return target.lineCount();
+    }
+
+    /**
+     * Clear the target, once everything written so far has reached it, and forget any failure writing to it
+     */
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            awaitDrained();
+            failure = null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+        target.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            closeOutput();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Wait for everything to be written, stop the background thread, and close the target
+     * @throws Exception on any error writing or closing
+     */
+    @Override
+    public void closeOutput() throws Exception {
+        Thread stopping;
+        lock.lock();
+        try {
+            closing = true;
+            notEmpty.signal();
+            stopping = writer;
+        } finally {
+            lock.unlock();
+        }
+        if (stopping != null) {
+            stopping.join();
+        }
+
+        IOException failed = null;
+        Error error = null;
+        lock.lock();
+        try {
+            closing = false;
+            throwIfFailed();
+        } catch (IOException e) {
+            failed = e;
+        } catch (Error e) {
+            error = e;
+        } finally {
+            lock.unlock();
+        }
+
+        // close the target whatever happened, without letting its failure hide the one writing to it
+        Throwable first = failed != null ? failed : error;
+        try {
+            target.closeOutput();
+        } catch (Exception e) {
+            if (first == null) {
+                throw e;
+            }
+            first.addSuppressed(e);
+        }
+        if (error != null) {
+            throw error;
+        }
+        if (failed != null) {
+            throw failed;
+        }
+    }
+
+    @Override
+    public AsyncOutput getOutputStream() {
+        return this;
+    }
+
+    // apply the overflow policy when the write won't fit in the free space
+    private boolean hasRoomFor(int length) {
+        if (ring.length - (tail - head) >= length || overflowPolicy == OverflowPolicy.BLOCK) {
+            return true;
+        }
+        if (overflowPolicy == OverflowPolicy.DROP) {
+            droppedBytes += length;
+            return false;
+        }
+        throw new AssertionError("Tried to write " + length + " bytes, but only " +
+            (ring.length - (tail - head)) + " bytes of the " + ring.length + " byte output buffer are free");
+    }
+
+    private void awaitRoom() throws IOException {
+        while (tail - head == ring.length) {
+            notFull.awaitUninterruptibly();
+            throwIfFailed();
+        }
+    }
+
+    private void awaitDrained() throws InterruptedIOException {
+        try {
+            while (head != tail) {
+                drained.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for output to be written");
+        }
+    }
+
+    private void startWriter() {
+        if (writer == null) {
+            writer = new Thread(this::writeInBackground, "system-stubs-async-output");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    private void writeInBackground() {
+        lock.lock();
+        try {
+            while (true) {
+                while (head == tail && !closing) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (head == tail) {
+                    break;
+                }
+
+                // the writer never overwrites bytes between head and tail, so they can be read unlocked
+                int position = (int) (head % ring.length);
+                int length = (int) Math.min(tail - head, ring.length - position);
+                Throwable thrown = null;
+                lock.unlock();
+                try {
+                    target.getOutputStream().write(ring, position, length);
+                } catch (IOException | RuntimeException | Error e) {
+                    thrown = e;
+                } finally {
+                    lock.lock();
+                }
+
+                if (thrown != null) {
+                    failure = thrown;
+                    // nothing more can be written, so release anyone waiting
+                    head = tail;
+                } else {
+                    head += length;
+                }
+                notFull.signalAll();
+                if (head == tail) {
+                    drained.signalAll();
+                }
+            }
+            writer = null;
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // the failure is kept until cleared, so everything after it fails, not just the first write to notice
+    private void throwIfFailed() throws IOException {
+        if (failure == null) {
+            return;
+        }
+        Throwable cause = failure;
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new IOException("Failed writing to output in the background: " + cause.getMessage(), cause);
+    }
+
+    private void drainUnchecked() {
+        try {
+            drain();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package uk.org.webcompere.systemstubs.stream.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * An append-only buffer of bytes held in fixed size chunks. Growing it never copies the bytes already written,
+ * and they are read, or decoded, directly from the chunks. This is not thread safe, so the owner
+ * must synchronize access to it.
+ */
+class ChunkedBuffer {
+    static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    private static final int INITIAL_CHUNK_SLOTS = 8;
+
+    // the largest array the JVM will reliably allocate
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private final int chunkSize;
+    private byte[][] chunks = new byte[INITIAL_CHUNK_SLOTS][];
+    private int chunkCount;
+    private long size;
+
+    ChunkedBuffer() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    ChunkedBuffer(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * The number of bytes written
+     * @return the size
+     */
+    long size() {
+        return size;
+    }
+
+    void write(int b) {
+        chunkAt(size)[(int) (size % chunkSize)] = (byte) b;
+        size++;
+    }
+
+    void write(byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            int positionInChunk = (int) (size % chunkSize);
+            int toCopy = Math.min(length, chunkSize - positionInChunk);
+            System.arraycopy(bytes, offset, chunkAt(size), positionInChunk, toCopy);
+            offset += toCopy;
+            length -= toCopy;
+            size += toCopy;
+        }
+    }
+
+    /**
+     * Empty the buffer, keeping the first chunk to reuse, and releasing the rest
+     */
+    void reset() {
+        if (chunks.length > INITIAL_CHUNK_SLOTS) {
+            chunks = Arrays.copyOf(chunks, INITIAL_CHUNK_SLOTS);
+        }
+        Arrays.fill(chunks, 1, chunks.length, null);
+        chunkCount = Math.min(chunkCount, 1);
+        size = 0;
+    }
+
+    void writeTo(OutputStream outputStream) throws IOException {
+        for (int i = 0; i < chunkCount; i++) {
+            outputStream.write(chunks[i], 0, lengthOfChunk(i));
+        }
+    }
+
+    byte[] toByteArray() {
+        if (size > MAX_ARRAY_SIZE) {
+            throw new OutOfMemoryError("Too many bytes written to copy into an array: " + size);
+        }
+        byte[] result = new byte[(int) size];
+        int position = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            int length = lengthOfChunk(i);
+            System.arraycopy(chunks[i], 0, result, position, length);
+            position += length;
+        }
+        return result;
+    }
+
+    /**
+     * Decode the bytes written into text. Characters whose bytes span chunks are decoded
+     * as though the bytes were contiguous.
+     * @param charset the charset to decode with
+     * @return the text
+     */
+    String decode(Charset charset) {
+        if (size == 0) {
+            return "";
+        }
+        if (chunkCount == 1) {
+            return new String(chunks[0], 0, (int) size, charset);
+        }
+
+        TextDecoder decoder = new TextDecoder(charset, size);
+        decodeInto(decoder);
+        return decoder.finish();
+    }
+
+    /**
+     * Decode part of the bytes written into text
+     * @param charset the charset to decode with
+     * @param from the position of the first byte
+     * @param to the position after the last byte
+     * @return the text
+     */
+    String decode(Charset charset, long from, long to) {
+        byte[] bytes = new byte[Math.toIntExact(to - from)];
+        int copied = 0;
+        while (copied < bytes.length) {
+            long position = from + copied;
+            int positionInChunk = (int) (position % chunkSize);
+            int toCopy = Math.min(bytes.length - copied, chunkSize - positionInChunk);
+            System.arraycopy(chunks[(int) (position / chunkSize)], positionInChunk, bytes, copied, toCopy);
+            copied += toCopy;
+        }
+        return new String(bytes, charset);
+    }
+
+    /**
+     * Pass the bytes written to a decoder, directly from the chunks
+     * @param decoder the decoder
+     */
+    void decodeInto(TextDecoder decoder) {
+        decodeInto(decoder, 0);
+    }
+
+    /**
+     * Pass the bytes written from a position onwards to a decoder, directly from the chunks
+     * @param decoder the decoder
+     * @param from the position of the first byte to decode
+     */
+    void decodeInto(TextDecoder decoder, long from) {
+        for (int i = (int) (from / chunkSize); i < chunkCount; i++) {
+            int start = i == from / chunkSize ? (int) (from % chunkSize) : 0;
+            decoder.decode(ByteBuffer.wrap(chunks[i], start, lengthOfChunk(i) - start));
+        }
+    }
+
+    private byte[] chunkAt(long position) {
+        int index = (int) (position / chunkSize);
+        if (index == chunkCount) {
+            if (chunkCount == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            }
+            chunks[chunkCount++] = new byte[chunkSize];
+        }
+        return chunks[index];
+    }
+
+    private int lengthOfChunk(int index) {
+        return (int) Math.min(chunkSize, size - (long) index * chunkSize);
+    }
+}
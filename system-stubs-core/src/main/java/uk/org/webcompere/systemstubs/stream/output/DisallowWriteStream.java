@@ -1,6 +1,7 @@
 package uk.org.webcompere.systemstubs.stream.output;
 
 import java.io.OutputStream;
+import java.util.Objects;
 
 /**
  * An {@link Output} that throws an {@link AssertionError} if anything is written.
@@ -13,6 +14,15 @@ public class DisallowWriteStream extends OutputStream implements Output<Disallow
             "' although this is not allowed.");
     }
 
+    @Override
+    public void write(byte[] b, int off, int len) {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len > 0) {
+            // report the first byte, as writing them one at a time would
+            write(b[off]);
+        }
+    }
+
     @Override
     public DisallowWriteStream getOutputStream() {
         return this;
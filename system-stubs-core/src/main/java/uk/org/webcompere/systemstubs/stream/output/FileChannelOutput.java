@@ -0,0 +1,262 @@
+package uk.org.webcompere.systemstubs.stream.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Objects;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * An {@link Output} which writes to a file through a {@link FileChannel}, collecting the output in a buffer
+ * and writing it a buffer at a time. The file is opened on the first write - replacing what's there,
+ * unless appending - and closed when the output is closed, so it can be used with an <code>execute</code> method
+ * and reused. Unlike {@link OutputFactories#writeToFile(java.io.File)}, the text written can be read back with
+ * {@link #getText()}, which reads the whole file, in blocks, directly into the decoder.
+ * <p>
+ * When used with <code>SystemOut</code> or <code>SystemErr</code>, every line printed asks for a flush, which
+ * writes the buffer to the file, so the file can be read while the output is active. The {@link ForcePolicy}
+ * decides whether the file is also forced to the disk, which is much slower.
+ * </p>
+ * @since 2.1.9
+ */
+public class FileChannelOutput extends OutputStream implements Output<FileChannelOutput> {
+    /**
+     * The default size of the buffer
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The default interval between forcing the file to the disk with {@link ForcePolicy#FORCE_PERIODICALLY}
+     */
+    public static final Duration DEFAULT_FORCE_INTERVAL = Duration.ofSeconds(1);
+
+    /**
+     * When to force the file to the disk. Whatever the policy, the buffer is written to the file when it's
+     * full, when the output is flushed, when its text is read, and when it's closed
+     */
+    public enum ForcePolicy {
+        /**
+         * Never force the file to the disk, leaving it to the operating system
+         */
+        NO_FORCE,
+
+        /**
+         * Force the file to the disk when it's closed
+         */
+        FORCE_ON_CLOSE,
+
+        /**
+         * Force the file to the disk when the output is flushed, at most once per force interval, and when
+         * it's closed
+         */
+        FORCE_PERIODICALLY
+    }
+
+    private final Path file;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private boolean append;
+    private ForcePolicy forcePolicy = ForcePolicy.NO_FORCE;
+    private long forceIntervalNanos = DEFAULT_FORCE_INTERVAL.toNanos();
+
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private long lastForce;
+
+    /**
+     * Construct an output to write to a file
+     * @param file the file
+     */
+    public FileChannelOutput(Path file) {
+        this.file = Objects.requireNonNull(file);
+    }
+
+    /**
+     * Set the size of the buffer
+     * @param bufferSize the number of bytes to collect before writing them to the file
+     * @return this for fluent calling
+     */
+    public synchronized FileChannelOutput bufferSize(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive");
+        }
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    /**
+     * Set whether to add to the end of an existing file, or replace it
+     * @param append true to append to the file
+     * @return this for fluent calling
+     */
+    public synchronized FileChannelOutput append(boolean append) {
+        this.append = append;
+        return this;
+    }
+
+    /**
+     * Set when to force the file to the disk
+     * @param forcePolicy the policy
+     * @return this for fluent calling
+     */
+    public synchronized FileChannelOutput forcePolicy(ForcePolicy forcePolicy) {
+        this.forcePolicy = Objects.requireNonNull(forcePolicy);
+        return this;
+    }
+
+    /**
+     * Set the shortest time between forcing the file to the disk with {@link ForcePolicy#FORCE_PERIODICALLY}
+     * @param forceInterval the interval
+     * @return this for fluent calling
+     */
+    public synchronized FileChannelOutput forceInterval(Duration forceInterval) {
+        this.forceIntervalNanos = forceInterval.toNanos();
+        return this;
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        ByteBuffer target = openBuffer();
+        if (!target.hasRemaining()) {
+            drain();
+        }
+        target.put((byte) b);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        ByteBuffer target = openBuffer();
+        if (len > target.remaining()) {
+            drain();
+        }
+        if (len >= target.capacity()) {
+            // too big to be worth copying into the buffer
+            writeFully(ByteBuffer.wrap(b, off, len));
+        } else {
+            target.put(b, off, len);
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        drain();
+        if (forcePolicy == ForcePolicy.FORCE_PERIODICALLY) {
+            long now = System.nanoTime();
+            if (now - lastForce >= forceIntervalNanos) {
+                channel.force(false);
+                lastForce = now;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        try {
+            drain();
+            if (forcePolicy != ForcePolicy.NO_FORCE) {
+                channel.force(false);
+            }
+        } finally {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Read the text of the file, including anything still in the buffer
+     * @return the text in the file, or empty if there is no file
+     */
+    @Override
+    public synchronized String getText() {
+        try {
+            if (channel != null) {
+                drain();
+                return decode(channel);
+            }
+            if (!Files.exists(file)) {
+                return "";
+            }
+            try (FileChannel reader = FileChannel.open(file, READ)) {
+                return decode(reader);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + file, e);
+        }
+    }
+
+    /**
+     * Empty the file, if it's open, along with the buffer
+     */
+    @Override
+    public synchronized void clear() {
+        if (channel == null) {
+            return;
+        }
+        buffer.clear();
+        try {
+            channel.truncate(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot clear " + file, e);
+        }
+    }
+
+    @Override
+    public void closeOutput() throws IOException {
+        close();
+    }
+
+    @Override
+    public FileChannelOutput getOutputStream() {
+        return this;
+    }
+
+    private ByteBuffer openBuffer() throws IOException {
+        if (channel == null) {
+            channel = append ?
+                FileChannel.open(file, READ, WRITE, CREATE) :
+                FileChannel.open(file, READ, WRITE, CREATE, TRUNCATE_EXISTING);
+            channel.position(channel.size());
+            if (buffer == null || buffer.capacity() != bufferSize) {
+                buffer = ByteBuffer.allocateDirect(bufferSize);
+            }
+            buffer.clear();
+            lastForce = System.nanoTime();
+        }
+        return buffer;
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    private static String decode(FileChannel reader) throws IOException {
+        long size = reader.size();
+        TextDecoder decoder = new TextDecoder(Charset.defaultCharset(), size);
+        decoder.decode(reader, size);
+        return decoder.finish();
+    }
+}
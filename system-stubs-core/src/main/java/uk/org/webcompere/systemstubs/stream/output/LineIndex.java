@@ -0,0 +1,137 @@
+package uk.org.webcompere.systemstubs.stream.output;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Records where the line separators are as bytes are written, so lines can be found without decoding
+ * and splitting the whole of the text. The lines match those of {@link Output#getLines()}, which splits the
+ * text on the system line separator and drops any empty lines at the end. This is not thread safe,
+ * so the owner must synchronize access to it.
+ */
+class LineIndex {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final byte[] separator;
+    private long[] separatorPositions = new long[INITIAL_CAPACITY];
+    private int separatorCount;
+    private int matched;
+    private long position;
+
+    private LineIndex(byte[] separator) {
+        this.separator = separator;
+    }
+
+    /**
+     * Create an index of the system line separator in bytes of the given charset
+     * @param charset the charset the text will be decoded with
+     * @return the index, or <code>null</code> if the separator can't be found reliably in the bytes of
+     *      the charset, which is the case for charsets, like UTF-16, that don't encode it as plain ASCII
+     */
+    static LineIndex ofSystemLineSeparator(Charset charset) {
+        String separator = System.lineSeparator();
+        byte[] encoded = separator.getBytes(charset);
+        if (!Arrays.equals(encoded, separator.getBytes(StandardCharsets.US_ASCII))) {
+            return null;
+        }
+        return new LineIndex(encoded);
+    }
+
+    void scan(int b) {
+        if ((byte) b == separator[matched]) {
+            matched++;
+            if (matched == separator.length) {
+                addSeparator(position - matched + 1);
+                matched = 0;
+            }
+        } else {
+            matched = (byte) b == separator[0] ? 1 : 0;
+        }
+        position++;
+    }
+
+    void scan(byte[] bytes, int offset, int length) {
+        if (separator.length == 1 && matched == 0) {
+            byte target = separator[0];
+            for (int i = offset; i < offset + length; i++) {
+                if (bytes[i] == target) {
+                    addSeparator(position + i - offset);
+                }
+            }
+            position += length;
+            return;
+        }
+        for (int i = offset; i < offset + length; i++) {
+            scan(bytes[i]);
+        }
+    }
+
+    void reset() {
+        if (separatorPositions.length > INITIAL_CAPACITY) {
+            separatorPositions = new long[INITIAL_CAPACITY];
+        }
+        separatorCount = 0;
+        matched = 0;
+        position = 0;
+    }
+
+    /**
+     * Take a view of the lines as they are now. Writing more doesn't change the view, though a
+     * {@link #reset()} invalidates it.
+     * @return the lines so far
+     */
+    Lines lines() {
+        return new Lines(separatorPositions, separatorCount, position, separator.length);
+    }
+
+    private void addSeparator(long at) {
+        if (separatorCount == separatorPositions.length) {
+            separatorPositions = Arrays.copyOf(separatorPositions, separatorCount * 2);
+        }
+        separatorPositions[separatorCount++] = at;
+    }
+
+    /**
+     * The boundaries of the lines at a point in time
+     */
+    static class Lines {
+        private final long[] separatorPositions;
+        private final int separatorCount;
+        private final long size;
+        private final int separatorLength;
+        private final int count;
+
+        Lines(long[] separatorPositions, int separatorCount, long size, int separatorLength) {
+            this.separatorPositions = separatorPositions;
+            this.separatorCount = separatorCount;
+            this.size = size;
+            this.separatorLength = separatorLength;
+            this.count = countLines();
+        }
+
+        int count() {
+            return count;
+        }
+
+        long start(int line) {
+            return line == 0 ? 0 : separatorPositions[line - 1] + separatorLength;
+        }
+
+        long end(int line) {
+            return line < separatorCount ? separatorPositions[line] : size;
+        }
+
+        private int countLines() {
+            if (separatorCount == 0) {
+                // like String.split, text without any separators is a single line, even if it's empty
+                return 1;
+            }
+            int lines = separatorCount + 1;
+            while (lines > 0 && start(lines - 1) == end(lines - 1)) {
+                lines--;
+            }
+            return lines;
+        }
+    }
+}
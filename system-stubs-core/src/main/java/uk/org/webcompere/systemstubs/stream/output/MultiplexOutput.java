@@ -3,6 +3,7 @@ package uk.org.webcompere.systemstubs.stream.output;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Arrays;
+import java.util.Objects;
 import java.util.stream.Stream;
 
 /**
@@ -29,11 +30,34 @@ public class MultiplexOutput extends OutputStream implements Output<MultiplexOut
         }
     }
 
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        for (Output<?> output : outputs) {
+            output.getOutputStream().write(b, off, len);
+        }
+    }
+
     @Override
     public String getText() {
         return outputs[0].getText();
     }
 
+    @Override
+    public Stream<String> getLines() {
+        return outputs[0].getLines();
+    }
+
+    @Override
+    public String getLine(int index) {
+        return outputs[0].getLine(index);
+    }
+
+    @Override
+    public int lineCount() {
+        return outputs[0].lineCount();
+    }
+
     @Override
     public void clear() {
         for (Output<?> output : outputs) {
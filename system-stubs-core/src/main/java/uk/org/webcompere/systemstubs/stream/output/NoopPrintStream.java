@@ -0,0 +1,183 @@
+package uk.org.webcompere.systemstubs.stream.output;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * A {@link PrintStream} that discards everything printed to it, without formatting or encoding it first.
+ * This is put in place of a system stream whose output is a {@link NoopStream}, so muted code pays
+ * next to nothing for its output. As nothing is formatted, a bad format string passed to
+ * {@link #printf(String, Object...)} is not detected.
+ * @since 2.1.9
+ */
+public class NoopPrintStream extends PrintStream {
+
+    /**
+     * Construct a print stream which prints nothing
+     */
+    public NoopPrintStream() {
+        super(OutputStream.nullOutputStream(), false, Charset.defaultCharset());
+    }
+
+    @Override
+    public void flush() {
+        // nothing to flush
+    }
+
+    @Override
+    public void close() {
+        // nothing to close
+    }
+
+    @Override
+    public boolean checkError() {
+        return false;
+    }
+
+    @Override
+    public void write(int b) {
+        // discarded
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) {
+        // discarded
+    }
+
+    @Override
+    public void write(byte[] buf) {
+        // discarded
+    }
+
+    @Override
+    public void print(boolean b) {
+        // discarded
+    }
+
+    @Override
+    public void print(char c) {
+        // discarded
+    }
+
+    @Override
+    public void print(int i) {
+        // discarded
+    }
+
+    @Override
+    public void print(long l) {
+        // discarded
+    }
+
+    @Override
+    public void print(float f) {
+        // discarded
+    }
+
+    @Override
+    public void print(double d) {
+        // discarded
+    }
+
+    @Override
+    public void print(char[] s) {
+        // discarded
+    }
+
+    @Override
+    public void print(String s) {
+        // discarded
+    }
+
+    @Override
+    public void print(Object obj) {
+        // discarded
+    }
+
+    @Override
+    public void println() {
+        // discarded
+    }
+
+    @Override
+    public void println(boolean x) {
+        // discarded
+    }
+
+    @Override
+    public void println(char x) {
+        // discarded
+    }
+
+    @Override
+    public void println(int x) {
+        // discarded
+    }
+
+    @Override
+    public void println(long x) {
+        // discarded
+    }
+
+    @Override
+    public void println(float x) {
+        // discarded
+    }
+
+    @Override
+    public void println(double x) {
+        // discarded
+    }
+
+    @Override
+    public void println(char[] x) {
+        // discarded
+    }
+
+    @Override
+    public void println(String x) {
+        // discarded
+    }
+
+    @Override
+    public void println(Object x) {
+        // discarded
+    }
+
+    @Override
+    public PrintStream printf(String format, Object... args) {
+        return this;
+    }
+
+    @Override
+    public PrintStream printf(Locale l, String format, Object... args) {
+        return this;
+    }
+
+    @Override
+    public PrintStream format(String format, Object... args) {
+        return this;
+    }
+
+    @Override
+    public PrintStream format(Locale l, String format, Object... args) {
+        return this;
+    }
+
+    @Override
+    public PrintStream append(CharSequence csq) {
+        return this;
+    }
+
+    @Override
+    public PrintStream append(CharSequence csq, int start, int end) {
+        return this;
+    }
+
+    @Override
+    public PrintStream append(char c) {
+        return this;
+    }
+}
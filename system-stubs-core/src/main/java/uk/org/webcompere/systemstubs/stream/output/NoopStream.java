@@ -1,6 +1,7 @@
 package uk.org.webcompere.systemstubs.stream.output;
 
 import java.io.OutputStream;
+import java.util.Objects;
 
 /**
  * An {@link Output} that discards anything written to it. It can be used to mute
@@ -11,6 +12,11 @@ public class NoopStream extends OutputStream implements Output<NoopStream> {
     public void write(int b) {
     }
 
+    @Override
+    public void write(byte[] b, int off, int len) {
+        Objects.checkFromIndexSize(off, len, b.length);
+    }
+
     @Override
     public NoopStream getOutputStream() {
         return this;
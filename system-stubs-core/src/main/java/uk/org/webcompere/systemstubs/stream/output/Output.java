@@ -92,6 +92,32 @@ public interface Output<T extends OutputStream> {
         return Arrays.stream(getText().split(Pattern.quote(System.lineSeparator())));
     }
 
+    /**
+     * Get one of the lines of the plain text, as broken up by {@link #getLines()}
+     * @param index the index of the line, from zero
+     * @return the line
+     * @throws IndexOutOfBoundsException if there is no such line
+     * @since 2.1.9
+     */
+    default String getLine(int index) {
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("No line " + index);
+        }
+        return getLines()
+            .skip(index)
+            .findFirst()
+            .orElseThrow(() -> new IndexOutOfBoundsException("No line " + index));
+    }
+
+    /**
+     * The number of lines in the plain text, as broken up by {@link #getLines()}
+     * @return the number of lines
+     * @since 2.1.9
+     */
+    default int lineCount() {
+        return Math.toIntExact(getLines().count());
+    }
+
     /**
      * Get the plain text broken into lines and recombined with <code>\n</code>
      * @return the output as a single string
@@ -2,6 +2,7 @@ package uk.org.webcompere.systemstubs.stream.output;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.stream.Stream;
 
@@ -67,6 +68,17 @@ public class OutputFactories {
     }
 
 
+    /**
+     * Write to the output created by another factory on a background thread, so that writing isn't held up by
+     * a slow output, such as the original stream
+     * @param factory the factory of the output to write to in the background
+     * @return an {@link OutputFactory} which produces an {@link AsyncOutput}
+     * @since 2.1.9
+     */
+    public static OutputFactory<AsyncOutput> async(OutputFactory<?> factory) {
+        return original -> new AsyncOutput(factory.apply(original));
+    }
+
     /**
      * Tap an output while still using the original output
      * @return an {@link OutputFactory} which performs a tap
@@ -82,4 +94,16 @@ public class OutputFactories {
     public static OutputFactory<FileOutputStream> writeToFile(File file) {
         return original -> Output.fromCloseableStream(new FileOutputStream(file));
     }
+
+    /**
+     * Write to a file through a buffered {@link FileChannelOutput} when the output is active, closing it when
+     * it's deactivated. The text written can be read back from the output. For control over buffering,
+     * appending and forcing to the disk, construct the {@link FileChannelOutput} directly.
+     * @param file the target file for writing to
+     * @return an {@link OutputFactory} which writes to the file
+     * @since 2.1.9
+     */
+    public static OutputFactory<FileChannelOutput> writeToFile(Path file) {
+        return original -> new FileChannelOutput(file);
+    }
 }
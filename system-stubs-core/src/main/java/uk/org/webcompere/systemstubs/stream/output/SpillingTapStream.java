@@ -0,0 +1,208 @@
+package uk.org.webcompere.systemstubs.stream.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * An {@link Output} for capturing more output than will comfortably fit on the heap. Like {@link TapStream}
+ * it keeps what's written in memory, but once that passes a threshold, it is moved to a temporary file,
+ * and anything written afterwards is added to the file, a block at a time. The text is read back from the file
+ * when needed. When used with <code>SystemOut</code> or <code>SystemErr</code>, the file is deleted as the
+ * stub is torn down, so the text of a large output must be read while the stub is active.
+ * @since 2.1.9
+ */
+public class SpillingTapStream extends OutputStream implements Output<SpillingTapStream> {
+    /**
+     * The default number of bytes kept in memory before moving to a file
+     */
+    public static final long DEFAULT_THRESHOLD = 16L * 1024 * 1024;
+
+    // once spilled, how much is buffered before being written to the file
+    private static final int FILE_BLOCK_SIZE = 64 * 1024;
+
+    private final long threshold;
+    private final Path directory;
+    private final ChunkedBuffer memory = new ChunkedBuffer();
+
+    private Path file;
+    private FileChannel channel;
+    private boolean fileDeleted;
+
+    /**
+     * Construct with the {@link #DEFAULT_THRESHOLD}, spilling to the default temporary directory
+     */
+    public SpillingTapStream() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Construct with a threshold, spilling to the default temporary directory
+     * @param threshold the number of bytes to keep in memory before moving them to a file
+     */
+    public SpillingTapStream(long threshold) {
+        this(threshold, null);
+    }
+
+    /**
+     * Construct with a threshold and the directory for the file
+     * @param threshold the number of bytes to keep in memory before moving them to a file
+     * @param directory the directory in which to create the file, or <code>null</code> for the default
+     *                  temporary directory
+     */
+    public SpillingTapStream(long threshold, Path directory) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Threshold cannot be negative");
+        }
+        this.threshold = threshold;
+        this.directory = directory;
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        memory.write(b);
+        spillIfNeeded();
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        memory.write(b, off, len);
+        spillIfNeeded();
+    }
+
+    /**
+     * Has the output been moved to a file?
+     * @return true if the output is in a file
+     */
+    public synchronized boolean isSpilled() {
+        return channel != null;
+    }
+
+    /**
+     * The number of bytes captured, whether in memory or in the file
+     * @return the number of bytes
+     */
+    public synchronized long size() {
+        try {
+            return memory.size() + (channel == null ? 0 : channel.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read size of spilled output", e);
+        }
+    }
+
+    /**
+     * Write all of the captured bytes to another stream, without decoding them or reading them into
+     * memory all at once
+     * @param outputStream the target
+     * @throws IOException on error reading the file or writing to the target
+     */
+    public synchronized void writeTo(OutputStream outputStream) throws IOException {
+        checkNotDeleted();
+        if (channel != null) {
+            ByteBuffer block = ByteBuffer.allocate(FILE_BLOCK_SIZE);
+            long position = 0;
+            while (readBlock(position, block) > 0) {
+                position += block.remaining();
+                outputStream.write(block.array(), 0, block.remaining());
+            }
+        }
+        memory.writeTo(outputStream);
+    }
+
+    @Override
+    public synchronized String getText() {
+        checkNotDeleted();
+        if (channel == null) {
+            return memory.decode(Charset.defaultCharset());
+        }
+
+        try {
+            TextDecoder decoder = new TextDecoder(Charset.defaultCharset(), size());
+            decoder.decode(channel, channel.size());
+            memory.decodeInto(decoder);
+            return decoder.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read spilled output", e);
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        memory.reset();
+        fileDeleted = false;
+        try {
+            deleteFile();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot delete spilled output", e);
+        }
+    }
+
+    /**
+     * Delete the file, if the output has been spilled. The text can no longer be read, until more is
+     * written following a {@link #clear()}.
+     * @throws IOException on error deleting the file
+     */
+    @Override
+    public synchronized void closeOutput() throws IOException {
+        if (channel != null) {
+            memory.reset();
+            fileDeleted = true;
+            deleteFile();
+        }
+    }
+
+    @Override
+    public SpillingTapStream getOutputStream() {
+        return this;
+    }
+
+    private void spillIfNeeded() throws IOException {
+        if (channel == null && memory.size() > threshold) {
+            file = directory == null ?
+                Files.createTempFile("system-stubs", ".out") :
+                Files.createTempFile(directory, "system-stubs", ".out");
+            channel = FileChannel.open(file, READ, WRITE);
+        }
+        if (channel != null && memory.size() >= FILE_BLOCK_SIZE) {
+            memory.writeTo(Channels.newOutputStream(channel));
+            memory.reset();
+        }
+    }
+
+    // fill the block from the file at the given position, leaving it ready to read
+    private int readBlock(long position, ByteBuffer block) throws IOException {
+        block.clear();
+        while (block.hasRemaining() && channel.read(block, position + block.position()) > 0) {
+            // keep reading until the block is full or the file ends
+        }
+        block.flip();
+        return block.remaining();
+    }
+
+    private void deleteFile() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            Files.deleteIfExists(file);
+            file = null;
+        }
+    }
+
+    private void checkNotDeleted() {
+        if (fileDeleted) {
+            throw new IllegalStateException("The output was spilled to a file, which was deleted when the " +
+                "output was closed - read it before tearing down");
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package uk.org.webcompere.systemstubs.stream.output;
+
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Objects;
+
+/**
+ * An {@link Output} which keeps only the end of what's written to it - either the last so many bytes,
+ * or the last so many lines. Older output is overwritten in a ring buffer, so memory stays constant however
+ * much output is produced. Useful when only the final lines of a long-running process, e.g. its summary,
+ * need to be asserted.
+ * <p>
+ * When keeping the last bytes, the first of the retained bytes may be part of a character which has been
+ * overwritten, in which case the text begins with a replacement character. When keeping the last lines,
+ * the buffer grows as those lines need, up to a limit in bytes, and a line is counted by its <code>\n</code>
+ * terminator, with any incomplete final line counting as one of the lines. Lines too long for the limit, such
+ * as a progress bar redrawn with <code>\r</code>, are cut down to their last bytes, as when keeping the last bytes.
+ * </p>
+ * @since 2.1.9
+ */
+public class TailStream extends OutputStream implements Output<TailStream> {
+    /**
+     * The default limit on the bytes kept when keeping the last lines
+     */
+    public static final int DEFAULT_MAX_LINE_BYTES = 1024 * 1024;
+
+    private static final int INITIAL_LINE_BUFFER_SIZE = 1024;
+
+    // the largest array the JVM will reliably allocate
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private final int maxBytes;
+    private final long[] lineStarts;
+
+    private byte[] ring;
+    private long written;
+    private long retainedFrom;
+
+    private int linesStarted;
+    private int nextLineSlot;
+    private boolean atLineStart = true;
+
+    private TailStream(int maxBytes, int maxLines) {
+        this.maxBytes = maxBytes;
+        this.lineStarts = maxLines > 0 ? new long[maxLines] : null;
+        this.ring = new byte[maxLines > 0 ? Math.min(INITIAL_LINE_BUFFER_SIZE, maxBytes) : maxBytes];
+    }
+
+    /**
+     * Construct a tail which keeps the last bytes written to it
+     * @param maxBytes the number of bytes to keep
+     * @return a new {@link TailStream}
+     */
+    public static TailStream lastBytes(int maxBytes) {
+        checkMaxBytes(maxBytes);
+        return new TailStream(maxBytes, 0);
+    }
+
+    /**
+     * Construct a tail which keeps the last lines written to it, in at most {@link #DEFAULT_MAX_LINE_BYTES}
+     * @param maxLines the number of lines to keep
+     * @return a new {@link TailStream}
+     */
+    public static TailStream lastLines(int maxLines) {
+        return lastLines(maxLines, DEFAULT_MAX_LINE_BYTES);
+    }
+
+    /**
+     * Construct a tail which keeps the last lines written to it, up to a limit in bytes
+     * @param maxLines the number of lines to keep
+     * @param maxBytes the most bytes to keep, beyond which only the end of the lines is kept
+     * @return a new {@link TailStream}
+     * @since 2.1.9
+     */
+    public static TailStream lastLines(int maxLines, int maxBytes) {
+        if (maxLines <= 0) {
+            throw new IllegalArgumentException("Cannot keep " + maxLines + " lines");
+        }
+        checkMaxBytes(maxBytes);
+        return new TailStream(maxBytes, maxLines);
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        if (lineStarts != null) {
+            if (atLineStart) {
+                startLine();
+            }
+            ensureCapacity(written + 1 - retainedFrom);
+            atLineStart = b == '\n';
+        }
+        ring[(int) (written % ring.length)] = (byte) b;
+        written++;
+        retainBytes();
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (lineStarts == null) {
+            putTail(b, off, len);
+            return;
+        }
+
+        int end = off + len;
+        while (off < end) {
+            if (atLineStart) {
+                startLine();
+            }
+            int lineEnd = indexOfNewline(b, off, end);
+            atLineStart = lineEnd < end;
+            int length = Math.min(lineEnd + 1, end) - off;
+            ensureCapacity(written + length - retainedFrom);
+            putTail(b, off, length);
+            off += length;
+        }
+    }
+
+    /**
+     * Has any output been overwritten?
+     * @return true if the tail is not all that was written
+     */
+    public synchronized boolean isTruncated() {
+        return retainedFrom > 0;
+    }
+
+    /**
+     * Get the retained bytes
+     * @return a copy of the bytes at the end of the output
+     */
+    public synchronized byte[] toByteArray() {
+        byte[] result = new byte[(int) (written - retainedFrom)];
+        int start = (int) (retainedFrom % ring.length);
+        int first = Math.min(result.length, ring.length - start);
+        System.arraycopy(ring, start, result, 0, first);
+        System.arraycopy(ring, 0, result, first, result.length - first);
+        return result;
+    }
+
+    @Override
+    public String getText() {
+        return new String(toByteArray(), Charset.defaultCharset());
+    }
+
+    @Override
+    public synchronized void clear() {
+        written = 0;
+        retainedFrom = 0;
+        linesStarted = 0;
+        nextLineSlot = 0;
+        atLineStart = true;
+        if (lineStarts != null && ring.length > INITIAL_LINE_BUFFER_SIZE) {
+            ring = new byte[INITIAL_LINE_BUFFER_SIZE];
+        }
+    }
+
+    @Override
+    public TailStream getOutputStream() {
+        return this;
+    }
+
+    // copy bytes into the ring, keeping no more than the last maxBytes
+    private void putTail(byte[] b, int off, int len) {
+        // only the end of a large write is ever going to be kept
+        int skipped = Math.max(0, len - maxBytes);
+        written += skipped;
+        put(b, off + skipped, len - skipped);
+        retainBytes();
+    }
+
+    // copy bytes into the ring at the current position, overwriting the oldest if there's no room for them
+    private void put(byte[] b, int off, int len) {
+        int start = (int) (written % ring.length);
+        int first = Math.min(len, ring.length - start);
+        System.arraycopy(b, off, ring, start, first);
+        System.arraycopy(b, off + first, ring, 0, len - first);
+        written += len;
+    }
+
+    private void retainBytes() {
+        retainedFrom = Math.max(retainedFrom, written - maxBytes);
+    }
+
+    // record the start of a line at the current position, forgetting the oldest line if there are too many
+    private void startLine() {
+        lineStarts[nextLineSlot] = written;
+        nextLineSlot = (nextLineSlot + 1) % lineStarts.length;
+        if (linesStarted < lineStarts.length) {
+            linesStarted++;
+        } else {
+            // the oldest line may already have been cut down by the byte limit
+            retainedFrom = Math.max(retainedFrom, lineStarts[nextLineSlot]);
+        }
+    }
+
+    // grow the ring towards the byte limit, beyond which the oldest bytes are overwritten
+    private void ensureCapacity(long needed) {
+        if (needed <= ring.length || ring.length == maxBytes) {
+            return;
+        }
+        byte[] retained = toByteArray();
+        ring = new byte[(int) Math.min(maxBytes, Math.max(needed, ring.length * 2L))];
+        written = retainedFrom;
+        put(retained, 0, retained.length);
+    }
+
+    private static void checkMaxBytes(int maxBytes) {
+        if (maxBytes <= 0 || maxBytes > MAX_ARRAY_SIZE) {
+            throw new IllegalArgumentException("Cannot keep " + maxBytes + " bytes");
+        }
+    }
+
+    private static int indexOfNewline(byte[] b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (b[i] == '\n') {
+                return i;
+            }
+        }
+        return to;
+    }
+}
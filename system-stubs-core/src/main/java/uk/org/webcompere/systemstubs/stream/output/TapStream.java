@@ -1,16 +1,173 @@
 package uk.org.webcompere.systemstubs.stream.output;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
+import java.util.ConcurrentModificationException;
+import java.util.Objects;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
- * TapStream is a {@link ByteArrayOutputStream} that satisfies the {@link Output}
- * interface too.
+ * TapStream is a {@link ByteArrayOutputStream} that satisfies the {@link Output} interface too.
+ * Rather than the single array of {@link ByteArrayOutputStream}, which is copied each time it grows, the bytes
+ * are kept in fixed size chunks, so capturing a large amount of output never copies what has
+ * already been captured, and {@link #getText()} decodes the chunks directly. The positions of line separators
+ * are recorded as bytes are written, so {@link #getLines()}, {@link #getLine(int)} and {@link #lineCount()}
+ * decode only the lines they return. The text is decoded incrementally: {@link #getText()} decodes only
+ * the bytes written since it was last called, until the tap is cleared.
+ * The inherited <code>buf</code> and <code>count</code> fields are not used.
  */
 public class TapStream extends ByteArrayOutputStream implements Output<TapStream> {
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    private final ChunkedBuffer buffer = new ChunkedBuffer();
+
+    // null when the line separator can't be found in the bytes of the default charset
+    private final LineIndex lineIndex = LineIndex.ofSystemLineSeparator(CHARSET);
+
+    // changed on each reset, to detect lines being read after the text they came from was cleared
+    private int generation;
+
+    // the text decoded by getText so far, discarded on reset
+    private TextDecoder textDecoder;
+    private long decodedBytes;
+    private String decodedText;
+
+    /**
+     * Construct an empty tap
+     */
+    public TapStream() {
+        // the buffer of the superclass is not used
+        super(0);
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        buffer.write(b);
+        if (lineIndex != null) {
+            lineIndex.scan(b);
+        }
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        Objects.checkFromIndexSize(off, len, b.length);
+        buffer.write(b, off, len);
+        if (lineIndex != null) {
+            lineIndex.scan(b, off, len);
+        }
+    }
+
+    @Override
+    public synchronized void writeTo(OutputStream out) throws IOException {
+        buffer.writeTo(out);
+    }
+
+    @Override
+    public synchronized void reset() {
+        buffer.reset();
+        if (lineIndex != null) {
+            lineIndex.reset();
+        }
+        generation++;
+        textDecoder = null;
+        decodedBytes = 0;
+        decodedText = null;
+    }
+
+    @Override
+    public synchronized byte[] toByteArray() {
+        return buffer.toByteArray();
+    }
+
+    @Override
+    public synchronized int size() {
+        return (int) Math.min(Integer.MAX_VALUE, buffer.size());
+    }
+
+    @Override
+    public synchronized String toString() {
+        return getText();
+    }
+
+    @Override
+    public synchronized String toString(String charsetName) throws UnsupportedEncodingException {
+        Charset charset;
+        try {
+            charset = Charset.forName(Objects.requireNonNull(charsetName));
+        } catch (IllegalArgumentException e) {
+            throw new UnsupportedEncodingException(charsetName);
+        }
+        return buffer.decode(charset);
+    }
+
+    @Override
+    public synchronized String toString(Charset charset) {
+        return buffer.decode(charset);
+    }
+
+    @Deprecated
+    @Override
+    public synchronized String toString(int hibyte) {
+        byte[] bytes = buffer.toByteArray();
+        return new String(bytes, hibyte, 0, bytes.length);
+    }
+
+    @Override
+    public synchronized String getText() {
+        long size = buffer.size();
+        if (decodedText != null && decodedBytes == size) {
+            return decodedText;
+        }
+        if (textDecoder == null) {
+            textDecoder = new TextDecoder(CHARSET, size);
+        }
+        buffer.decodeInto(textDecoder, decodedBytes);
+        decodedBytes = size;
+        decodedText = textDecoder.text();
+        return decodedText;
+    }
+
+    /**
+     * Get the lines of the text. The lines are those captured at the time of the call, and are decoded
+     * as the stream is consumed
+     * @return a stream of lines
+     * @throws ConcurrentModificationException if the tap is cleared while the stream is being consumed
+     */
+    @Override
+    public Stream<String> getLines() {
+        if (lineIndex == null) {
+            return Output.super.getLines();
+        }
+        LineIndex.Lines lines;
+        int linesGeneration;
+        synchronized (this) {
+            lines = lineIndex.lines();
+            linesGeneration = generation;
+        }
+        return IntStream.range(0, lines.count())
+            .mapToObj(line -> decodeLine(lines, line, linesGeneration));
+    }
+
+    @Override
+    public synchronized String getLine(int index) {
+        if (lineIndex == null) {
+            return Output.super.getLine(index);
+        }
+        LineIndex.Lines lines = lineIndex.lines();
+        Objects.checkIndex(index, lines.count());
+        return buffer.decode(CHARSET, lines.start(index), lines.end(index));
+    }
+
     @Override
-    public String getText() {
-        return new String(getOutputStream().toByteArray(), Charset.defaultCharset());
+    public synchronized int lineCount() {
+        if (lineIndex == null) {
+            return Output.super.lineCount();
+        }
+        return lineIndex.lines().count();
     }
 
     @Override
@@ -22,4 +179,11 @@ public class TapStream extends ByteArrayOutputStream implements Output<TapStream
     public void clear() {
         reset();
     }
+
+    private synchronized String decodeLine(LineIndex.Lines lines, int line, int linesGeneration) {
+        if (generation != linesGeneration) {
+            throw new ConcurrentModificationException("The tap was cleared while its lines were being read");
+        }
+        return buffer.decode(CHARSET, lines.start(line), lines.end(line));
+    }
 }
@@ -0,0 +1,143 @@
+package uk.org.webcompere.systemstubs.stream.output;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Decodes text from a series of byte buffers as though they were one contiguous run of bytes, so a character
+ * whose bytes are split between two buffers is still decoded correctly. Malformed input is replaced, as
+ * with {@link String#String(byte[], Charset)}.
+ */
+class TextDecoder {
+    // the largest array the JVM will reliably allocate
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    // more than enough bytes to complete any character begun at the end of the previous buffer
+    private static final int MAX_BORROWED_BYTES = 16;
+
+    private static final int FILE_BLOCK_SIZE = 64 * 1024;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final CharsetDecoder decoder;
+    private CharBuffer text;
+    private ByteBuffer pending = EMPTY;
+
+    /**
+     * Construct a decoder
+     * @param charset the charset of the bytes
+     * @param expectedBytes how many bytes are likely to be decoded, to size the text buffer
+     */
+    TextDecoder(Charset charset, long expectedBytes) {
+        decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        text = CharBuffer.allocate(
+            (int) Math.min(MAX_ARRAY_SIZE, (long) (expectedBytes * (double) decoder.averageCharsPerByte()) + 1));
+    }
+
+    /**
+     * Decode the next bytes. The buffer is consumed, and may be reused by the caller afterwards.
+     * @param bytes the bytes following on from those already decoded
+     */
+    void decode(ByteBuffer bytes) {
+        if (pending.hasRemaining()) {
+            // complete the character begun at the end of the last buffer, using as few bytes as possible
+            // from this one, rather than copying it all onto the end of the pending bytes
+            int borrowed = Math.min(bytes.remaining(), MAX_BORROWED_BYTES);
+            ByteBuffer joined = ByteBuffer.allocate(pending.remaining() + borrowed)
+                .put(pending)
+                .put(bytes.slice().limit(borrowed))
+                .flip();
+            decodeInto(joined, false);
+
+            int unused = joined.remaining();
+            if (unused > borrowed) {
+                // still not enough to make a character
+                bytes.position(bytes.limit());
+                pending = copyOf(joined);
+                return;
+            }
+            bytes.position(bytes.position() + borrowed - unused);
+        }
+
+        decodeInto(bytes, false);
+        pending = bytes.hasRemaining() ? copyOf(bytes) : EMPTY;
+    }
+
+    /**
+     * Decode the first bytes of a file, reading them a block at a time with positional reads, so the position
+     * of the channel is left alone
+     * @param channel the file
+     * @param length how many bytes of the file to decode
+     * @throws IOException on error reading the file
+     */
+    void decode(FileChannel channel, long length) throws IOException {
+        ByteBuffer block = ByteBuffer.allocateDirect((int) Math.min(FILE_BLOCK_SIZE, Math.max(1, length)));
+        long position = 0;
+        while (position < length) {
+            block.clear();
+            block.limit((int) Math.min(block.capacity(), length - position));
+            int read = channel.read(block, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+            block.flip();
+            decode(block);
+        }
+    }
+
+    /**
+     * The text decoded so far, without finishing. Any incomplete character at the end is shown as malformed,
+     * but is kept to be completed by the next bytes.
+     * @return the text so far
+     */
+    String text() {
+        String decoded = new String(text.array(), text.arrayOffset(), text.position());
+        if (!pending.hasRemaining()) {
+            return decoded;
+        }
+        byte[] incomplete = new byte[pending.remaining()];
+        pending.duplicate().get(incomplete);
+        return decoded + new String(incomplete, decoder.charset());
+    }
+
+    /**
+     * Finish decoding, treating any incomplete character at the end as malformed
+     * @return all of the text decoded
+     */
+    String finish() {
+        decodeInto(pending, true);
+        pending = EMPTY;
+        while (decoder.flush(text).isOverflow()) {
+            grow();
+        }
+        return text.flip().toString();
+    }
+
+    private void decodeInto(ByteBuffer bytes, boolean endOfInput) {
+        while (decoder.decode(bytes, text, endOfInput).isOverflow()) {
+            grow();
+        }
+    }
+
+    private void grow() {
+        if (text.capacity() >= MAX_ARRAY_SIZE) {
+            throw new OutOfMemoryError("Too much text to decode into a String");
+        }
+        CharBuffer bigger = CharBuffer.allocate((int) Math.min(MAX_ARRAY_SIZE, text.capacity() * 2L + 16));
+        text = bigger.put(text.flip());
+    }
+
+    private static ByteBuffer copyOf(ByteBuffer bytes) {
+        return ByteBuffer.allocate(bytes.remaining())
+            .put(bytes)
+            .flip();
+    }
+}
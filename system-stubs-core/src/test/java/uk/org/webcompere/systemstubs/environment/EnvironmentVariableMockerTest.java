@@ -3,19 +3,29 @@ package uk.org.webcompere.systemstubs.environment;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.condition.EnabledOnOs;
+import uk.org.webcompere.systemstubs.internal.ProcessEnvironmentInterceptor;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static java.lang.System.getenv;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 import static org.junit.jupiter.api.condition.OS.*;
 
 class EnvironmentVariableMockerTest {
@@ -31,11 +41,52 @@ class EnvironmentVariableMockerTest {
     }
 
     @Test
-    void whenAttachEnvironmentThenGetAllVariables() {
+    void whenAttachEnvironmentThenGetAllVariablesWithoutCopyingThem() {
+        Map<String, String> original = new HashMap<>(System.getenv());
         Map<String, String> newMap = new HashMap<>();
         EnvironmentVariableMocker.connect(newMap);
 
-        assertThat(newMap).isNotEmpty();
+        assertThat(System.getenv()).isEqualTo(original);
+        assertThat(newMap).isEmpty();
+    }
+
+    @Test
+    void whenLayerRemovedFromMiddleOfStackThenLayersAboveSeeTheOneBelow() {
+        Map<String, String> bottom = new HashMap<>();
+        bottom.put("foo", "bottom");
+        bottom.put("bar", "bottom");
+        EnvironmentVariableMocker.connect(bottom);
+
+        Map<String, String> middle = new HashMap<>();
+        middle.put("foo", "middle");
+        middle.put("bar", "middle");
+        EnvironmentVariableMocker.connect(middle);
+
+        Map<String, String> top = new HashMap<>();
+        top.put("foo", "top");
+        EnvironmentVariableMocker.connect(top);
+
+        assertThat(System.getenv("bar")).isEqualTo("middle");
+
+        EnvironmentVariableMocker.remove(middle);
+
+        assertThat(System.getenv("foo")).isEqualTo("top");
+        assertThat(System.getenv("bar")).isEqualTo("bottom");
+    }
+
+    @Test
+    void variablesRemovedWhileConnectedAreHidden() {
+        Map<String, String> newMap = new HashMap<>();
+        newMap.put("foo", "bar");
+        EnvironmentVariableMocker.connect(newMap);
+
+        Set<String> toRemove = new HashSet<>();
+        EnvironmentVariableMocker.connect(new HashMap<>(), toRemove);
+        assertThat(System.getenv("foo")).isEqualTo("bar");
+
+        toRemove.add("foo");
+        assertThat(System.getenv("foo")).isNull();
+        assertThat(System.getenv()).doesNotContainKey("foo");
     }
 
     @Test
@@ -71,6 +122,43 @@ class EnvironmentVariableMockerTest {
         assertThat(result).containsEntry("foo", "bar");
     }
 
+    @Test
+    void manyThreadsCanConnectAndRemoveTheirOwnVariablesAtOnce() throws Exception {
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String name = "STRESS_" + t;
+            results.add(executor.submit(() -> {
+                start.await();
+                boolean allSeen = true;
+                for (int i = 0; i < 100; i++) {
+                    Map<String, String> newMap = new HashMap<>();
+                    newMap.put(name, Integer.toString(i));
+                    EnvironmentVariableMocker.connect(newMap);
+
+                    allSeen &= Integer.toString(i).equals(System.getenv(name));
+                    allSeen &= EnvironmentVariableMocker.remove(newMap);
+                }
+                return allSeen;
+            }));
+        }
+
+        start.countDown();
+        try {
+            for (Future<Boolean> result : results) {
+                assertThat(result.get(1, TimeUnit.MINUTES)).isTrue();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(EnvironmentVariableMocker.pop()).isTrue();
+        assertThat(ProcessEnvironmentInterceptor.isActive()).isFalse();
+        assertThat(System.getenv().keySet()).noneMatch(key -> key.startsWith("STRESS_"));
+    }
+
     @Test
     void whenEnvironmentContainsVariableAndMapIsConnectedTheMapWins() {
         Map<String, String> newMap = new HashMap<>();
@@ -93,6 +181,88 @@ class EnvironmentVariableMockerTest {
         assertThat(System.getenv()).doesNotContainKey("foo");
     }
 
+    @Test
+    void whenAddNullThenTheConnectedMapIsNotModifiedByGetEnv() {
+        Map<String, String> newMap = new HashMap<>();
+        EnvironmentVariableMocker.connect(newMap);
+        newMap.put("foo", null);
+
+        assertThat(System.getenv("foo")).isNull();
+        assertThat(System.getenv()).doesNotContainKey("foo");
+        assertThat(newMap).containsKey("foo");
+    }
+
+    @Test
+    void theEnvironmentFromGetEnvIsReusedAndSeesLaterChanges() {
+        Map<String, String> newMap = new HashMap<>();
+        EnvironmentVariableMocker.connect(newMap);
+        Map<String, String> environment = System.getenv();
+
+        newMap.put("foo", "bar");
+
+        assertThat(System.getenv()).isSameAs(environment);
+        assertThat(environment).containsEntry("foo", "bar");
+    }
+
+    @Test
+    void interceptionIsOnlyActiveWhileVariablesAreConnected() {
+        assertThat(ProcessEnvironmentInterceptor.isActive()).isFalse();
+
+        Map<String, String> newMap = new HashMap<>();
+        EnvironmentVariableMocker.connect(newMap);
+        assertThat(ProcessEnvironmentInterceptor.isActive()).isTrue();
+
+        EnvironmentVariableMocker.remove(newMap);
+        assertThat(ProcessEnvironmentInterceptor.isActive()).isFalse();
+    }
+
+    @Test
+    void variablesConnectedToAThreadCannotBeRemovedFromAnother() throws Exception {
+        Map<String, String> newMap = new HashMap<>();
+        newMap.put("foo", "bar");
+        EnvironmentVariableMocker.connectToThread(newMap, new HashSet<>());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> removal = executor.submit(() -> EnvironmentVariableMocker.removeFromThread(newMap));
+            assertThatThrownBy(removal::get)
+                .hasCauseInstanceOf(IllegalStateException.class);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(System.getenv("foo")).isEqualTo("bar");
+        assertThat(EnvironmentVariableMocker.removeFromThread(newMap)).isTrue();
+        assertThat(ProcessEnvironmentInterceptor.isActive()).isFalse();
+    }
+
+    @Test
+    void interceptionIsActiveWhileVariablesAreConnectedToAThread() {
+        Map<String, String> newMap = new HashMap<>();
+        EnvironmentVariableMocker.connectToThread(newMap, new HashSet<>());
+        assertThat(ProcessEnvironmentInterceptor.isActive()).isTrue();
+
+        EnvironmentVariableMocker.removeFromThread(newMap);
+        assertThat(ProcessEnvironmentInterceptor.isActive()).isFalse();
+    }
+
+    @Test
+    void whenUnhookingThenOriginalEnvironmentIsRestoredUntilNextConnection() {
+        assumeTrue(Boolean.getBoolean(EnvironmentVariableMocker.UNHOOK_PROPERTY));
+
+        Map<String, String> newMap = new HashMap<>();
+        newMap.put("foo", "bar");
+        EnvironmentVariableMocker.connect(newMap);
+        EnvironmentVariableMocker.remove(newMap);
+
+        assertThat(System.getenv().getClass().getName()).doesNotStartWith("uk.org.webcompere");
+        assertThat(System.getenv("foo")).isNull();
+
+        EnvironmentVariableMocker.connect(newMap);
+        assertThat(System.getenv("foo")).isEqualTo("bar");
+        assertThat(System.getenv()).containsEntry("foo", "bar");
+    }
+
     @Test
     void processBuilderEnvironmentIsAffectedByMockEnvironment() {
         Map<String, String> newMap = new HashMap<>();
@@ -117,6 +287,41 @@ class EnvironmentVariableMockerTest {
         assertThat(output).contains("BING=bong");
     }
 
+    @EnabledOnOs({ MAC, LINUX })
+    @Test
+    void repeatedLaunchesSeeChangesToTheMockEnvironment() throws Exception {
+        Map<String, String> newMap = new HashMap<>();
+        newMap.put("FOO", "bar");
+
+        EnvironmentVariableMocker.connect(newMap);
+
+        assertThat(executeProcessAndGetOutput(envProcessWithCopiedEnvironment())).contains("FOO=bar");
+        assertThat(executeProcessAndGetOutput(envProcessWithCopiedEnvironment())).contains("FOO=bar");
+
+        newMap.put("FOO", "baz");
+
+        assertThat(executeProcessAndGetOutput(envProcessWithCopiedEnvironment()))
+            .contains("FOO=baz")
+            .doesNotContain("FOO=bar");
+    }
+
+    @EnabledOnOs({ MAC, LINUX })
+    @Test
+    void processBuilderCreatedWhileMockingCanLaunchAfterMockingStops() throws Exception {
+        Map<String, String> newMap = new HashMap<>();
+        newMap.put("FOO", "bar");
+        EnvironmentVariableMocker.connect(newMap);
+
+        ProcessBuilder builder = new ProcessBuilder("/usr/bin/env");
+        builder.environment().put("BING", "bong");
+
+        EnvironmentVariableMocker.remove(newMap);
+
+        assertThat(executeProcessAndGetOutput(builder))
+            .contains("FOO=bar")
+            .contains("BING=bong");
+    }
+
     @EnabledOnOs({ MAC, LINUX })
     @Test
     void canLaunchWithDefaultEnvironmentAndNothingIsAdded() throws Exception {
@@ -160,6 +365,13 @@ class EnvironmentVariableMockerTest {
         assertThat(output).contains("FOO=bar");
     }
 
+    // a builder which doesn't touch its environment passes none, so the child inherits the real one
+    private static ProcessBuilder envProcessWithCopiedEnvironment() {
+        ProcessBuilder builder = new ProcessBuilder("/usr/bin/env");
+        builder.environment();
+        return builder;
+    }
+
     private String executeProcessAndGetOutput(ProcessBuilder builder) throws IOException {
         Process process = builder.start();
 
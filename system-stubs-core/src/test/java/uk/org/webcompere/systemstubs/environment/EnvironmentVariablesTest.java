@@ -4,6 +4,13 @@ import org.junit.jupiter.api.Test;
 
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.util.Collections.emptyMap;
 import static java.util.Collections.singletonMap;
@@ -21,6 +28,25 @@ class EnvironmentVariablesTest {
         new EnvironmentVariables();
     }
 
+    @Test
+    void installingInBackgroundCompletesAndOnlyHappensOnce() throws Exception {
+        CompletableFuture<Void> installation = EnvironmentVariables.installInBackground();
+
+        assertThat(EnvironmentVariables.installInBackground()).isSameAs(installation);
+        installation.get(1, TimeUnit.MINUTES);
+
+        new EnvironmentVariables("FOO", "bar")
+            .execute(() -> assertThat(System.getenv("FOO")).isEqualTo("bar"));
+    }
+
+    @Test
+    void canInstallBeforeUse() throws Exception {
+        EnvironmentVariables.install();
+
+        new EnvironmentVariables("FOO", "bar")
+            .execute(() -> assertThat(System.getenv("FOO")).isEqualTo("bar"));
+    }
+
     @Test
     void environmentVariablesAddedDontTakeImmediateEffect() {
         new EnvironmentVariables(singletonMap("FOO", "bar"));
@@ -248,4 +274,194 @@ class EnvironmentVariablesTest {
                 assertThat(new ProcessBuilder().environment()).containsEntry("FOO", "bar");
             });
     }
+
+    @Test
+    void threadScopedVariablesAreSeenByTheActivatingThread() throws Exception {
+        new EnvironmentVariables("FOO", "bar")
+            .setScopedToThread(true)
+            .execute(() -> {
+                assertThat(System.getenv("FOO")).isEqualTo("bar");
+                assertThat(System.getenv()).containsEntry("FOO", "bar");
+            });
+
+        assertThat(System.getenv("FOO")).isNull();
+    }
+
+    @Test
+    void threadScopedVariablesAreNotSeenByExistingThreads() throws Exception {
+        ExecutorService otherThread = Executors.newSingleThreadExecutor();
+        try {
+            // make sure the thread exists before the variables are set
+            otherThread.submit(() -> {}).get();
+
+            new EnvironmentVariables("FOO", "bar")
+                .setScopedToThread(true)
+                .execute(() -> {
+                    assertThat(otherThread.submit(() -> System.getenv("FOO")).get()).isNull();
+                });
+        } finally {
+            otherThread.shutdown();
+        }
+    }
+
+    @Test
+    void threadScopedVariablesCanBePassedToExistingThreads() throws Exception {
+        ExecutorService otherThread = Executors.newSingleThreadExecutor();
+        try {
+            otherThread.submit(() -> {}).get();
+
+            new EnvironmentVariables("FOO", "bar")
+                .setScopedToThread(true)
+                .execute(() -> {
+                    assertThat(otherThread.submit(
+                        EnvironmentVariables.withThreadEnvironment(() -> System.getenv("FOO"))).get())
+                        .isEqualTo("bar");
+                });
+        } finally {
+            otherThread.shutdown();
+        }
+    }
+
+    @Test
+    void threadScopedVariablesAreInheritedByChildThreads() throws Exception {
+        new EnvironmentVariables("FOO", "bar")
+            .setScopedToThread(true)
+            .execute(() -> {
+                AtomicReference<String> fromChild = new AtomicReference<>();
+                Thread child = new Thread(() -> fromChild.set(System.getenv("FOO")));
+                child.start();
+                child.join();
+
+                assertThat(fromChild.get()).isEqualTo("bar");
+            });
+    }
+
+    @Test
+    void childThreadsCanNestTheirOwnScopeOverTheInheritedVariables() throws Exception {
+        new EnvironmentVariables("FOO", "bar")
+            .setScopedToThread(true)
+            .execute(() -> {
+                AtomicReference<String> nested = new AtomicReference<>();
+                AtomicReference<String> afterNested = new AtomicReference<>();
+                Thread child = new Thread(() -> {
+                    try {
+                        new EnvironmentVariables("BING", "bong")
+                            .setScopedToThread(true)
+                            .execute(() -> nested.set(System.getenv("FOO") + " " + System.getenv("BING")));
+                        afterNested.set(System.getenv("FOO") + " " + System.getenv("BING"));
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                child.start();
+                child.join();
+
+                assertThat(nested.get()).isEqualTo("bar bong");
+                assertThat(afterNested.get()).isEqualTo("bar null");
+            });
+    }
+
+    @Test
+    void tasksGivenTheThreadEnvironmentKeepItAfterNestingTheirOwnScope() throws Exception {
+        ExecutorService otherThread = Executors.newSingleThreadExecutor();
+        try {
+            otherThread.submit(() -> {}).get();
+
+            new EnvironmentVariables("FOO", "bar")
+                .setScopedToThread(true)
+                .execute(() -> {
+                    String seen = otherThread.submit(EnvironmentVariables.withThreadEnvironment(() -> {
+                        String nested = new EnvironmentVariables("BING", "bong")
+                            .setScopedToThread(true)
+                            .execute(() -> System.getenv("FOO") + " " + System.getenv("BING"));
+                        return nested + ", then " + System.getenv("FOO") + " " + System.getenv("BING");
+                    })).get();
+
+                    assertThat(seen).isEqualTo("bar bong, then bar null");
+                });
+
+            assertThat(otherThread.submit(() -> System.getenv("FOO")).get()).isNull();
+        } finally {
+            otherThread.shutdown();
+        }
+    }
+
+    @Test
+    void tasksRunInParallelDoNotSeeAnotherTasksThreadScopedVariables() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            AtomicReference<String> fromOtherTask = new AtomicReference<>();
+            CountDownLatch otherTaskDone = new CountDownLatch(1);
+
+            String fromScopedTask = pool.submit(() -> new EnvironmentVariables("FOO", "bar")
+                .setScopedToThread(true)
+                .execute(() -> {
+                    // as a parallel test run does, the pool starts a worker for this while the scope is active
+                    pool.execute(() -> {
+                        fromOtherTask.set(System.getenv("FOO"));
+                        otherTaskDone.countDown();
+                    });
+                    assertThat(otherTaskDone.await(5, TimeUnit.SECONDS)).isTrue();
+
+                    return System.getenv("FOO") + " " +
+                        pool.submit(EnvironmentVariables.withThreadEnvironment(() -> System.getenv("FOO"))).get();
+                }))
+                .get();
+
+            assertThat(fromScopedTask).isEqualTo("bar bar");
+            assertThat(fromOtherTask.get()).isNull();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void childThreadsLoseThreadScopedVariablesWhenTheyAreRemoved() throws Exception {
+        AtomicReference<ExecutorService> childThread = new AtomicReference<>();
+        new EnvironmentVariables("FOO", "bar")
+            .setScopedToThread(true)
+            .execute(() -> {
+                childThread.set(Executors.newSingleThreadExecutor());
+                assertThat(childThread.get().submit(() -> System.getenv("FOO")).get()).isEqualTo("bar");
+            });
+
+        try {
+            assertThat(childThread.get().submit(() -> System.getenv("FOO")).get()).isNull();
+        } finally {
+            childThread.get().shutdown();
+        }
+    }
+
+    @Test
+    void threadScopedVariablesAreLayeredOnTopOfGlobalVariables() throws Exception {
+        new EnvironmentVariables("FOO", "bar", "BING", "bong")
+            .execute(() -> {
+                new EnvironmentVariables("FOO", "baz")
+                    .setScopedToThread(true)
+                    .execute(() -> {
+                        assertThat(System.getenv("FOO")).isEqualTo("baz");
+                        assertThat(System.getenv("BING")).isEqualTo("bong");
+                    });
+
+                assertThat(System.getenv("FOO")).isEqualTo("bar");
+            });
+    }
+
+    @Test
+    void cannotChangeScopeWhileActive() throws Exception {
+        EnvironmentVariables environmentVariables = new EnvironmentVariables();
+        environmentVariables.execute(() -> {
+            assertThatThrownBy(() -> environmentVariables.setScopedToThread(true))
+                .isInstanceOf(IllegalStateException.class);
+        });
+    }
+
+    @Test
+    void usingAndKeepsTheThreadScope() {
+        assertThat(new EnvironmentVariables()
+            .setScopedToThread(true)
+            .and("FOO", "bar")
+            .isScopedToThread())
+            .isTrue();
+    }
 }
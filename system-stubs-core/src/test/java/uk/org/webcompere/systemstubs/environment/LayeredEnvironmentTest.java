@@ -0,0 +1,91 @@
+package uk.org.webcompere.systemstubs.environment;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Collections.emptySet;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LayeredEnvironmentTest {
+    private final Map<String, String> original = new HashMap<>(Map.of("A", "1", "B", "2", "C", "3"));
+
+    @Test
+    void whenOverlayIsEmptyThenOriginalIsSeen() {
+        LayeredEnvironment layer = new LayeredEnvironment(new HashMap<>(), emptySet(), original);
+
+        assertThat(layer).isEqualTo(original);
+        assertThat(layer.get("A")).isEqualTo("1");
+    }
+
+    @Test
+    void overlayReplacesValuesBeneath() {
+        LayeredEnvironment layer = new LayeredEnvironment(new HashMap<>(Map.of("A", "x")), emptySet(), original);
+
+        assertThat(layer.get("A")).isEqualTo("x");
+        assertThat(layer).containsEntry("A", "x")
+            .containsEntry("B", "2")
+            .hasSize(3);
+    }
+
+    @Test
+    void nullInOverlayHidesValueBeneath() {
+        Map<String, String> overlay = new HashMap<>();
+        overlay.put("A", null);
+        LayeredEnvironment layer = new LayeredEnvironment(overlay, emptySet(), original);
+
+        assertThat(layer.get("A")).isNull();
+        assertThat(layer.containsKey("A")).isFalse();
+        assertThat(layer).doesNotContainKey("A").hasSize(2);
+    }
+
+    @Test
+    void removedVariablesAreHiddenUnlessInTheOverlay() {
+        Map<String, String> overlay = new HashMap<>();
+        Set<String> removed = new HashSet<>(Set.of("A", "B"));
+        LayeredEnvironment layer = new LayeredEnvironment(overlay, removed, original);
+
+        overlay.put("B", "back");
+
+        assertThat(layer).containsOnly(Map.entry("B", "back"), Map.entry("C", "3"));
+    }
+
+    @Test
+    void layersStackAndCanBeRelinked() {
+        LayeredEnvironment lower = new LayeredEnvironment(new HashMap<>(Map.of("A", "lower", "D", "4")),
+            emptySet(), original);
+        LayeredEnvironment upper = new LayeredEnvironment(new HashMap<>(Map.of("B", "upper")),
+            emptySet(), lower);
+
+        assertThat(upper).containsOnly(Map.entry("A", "lower"), Map.entry("B", "upper"),
+            Map.entry("C", "3"), Map.entry("D", "4"));
+
+        upper.setUnderlying(original);
+
+        assertThat(upper).containsOnly(Map.entry("A", "1"), Map.entry("B", "upper"),
+            Map.entry("C", "3"));
+    }
+
+    @Test
+    void combinedVariablesAreReusedUntilALayerChanges() {
+        Map<String, String> lowerOverlay = new HashMap<>(Map.of("A", "lower"));
+        LayeredEnvironment lower = new LayeredEnvironment(lowerOverlay, emptySet(), original);
+        Map<String, String> upperOverlay = new HashMap<>(Map.of("B", "upper"));
+        LayeredEnvironment upper = new LayeredEnvironment(upperOverlay, emptySet(), lower);
+
+        Set<Map.Entry<String, String>> entries = upper.entrySet();
+        assertThat(upper.entrySet()).isSameAs(entries);
+
+        upperOverlay.put("E", "5");
+        assertThat(upper.entrySet()).isNotSameAs(entries);
+        assertThat(upper).containsEntry("E", "5").hasSize(4);
+
+        entries = upper.entrySet();
+        lowerOverlay.put("A", "changed");
+        assertThat(upper.entrySet()).isNotSameAs(entries);
+        assertThat(upper).containsEntry("A", "changed");
+    }
+}
@@ -38,4 +38,16 @@ class SystemErrAndOutTest {
         });
 
     }
+
+    @Test
+    void linesOfBothStreamsCanBeIndexed() throws Exception {
+        SystemErrAndOut errAndOut = new SystemErrAndOut();
+        errAndOut.execute(() -> {
+            System.err.println("from err");
+            System.out.println("from out");
+        });
+
+        assertThat(errAndOut.lineCount()).isEqualTo(2);
+        assertThat(errAndOut.getLine(1)).isEqualTo("from out");
+    }
 }
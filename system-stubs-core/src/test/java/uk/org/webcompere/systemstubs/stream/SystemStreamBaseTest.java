@@ -1,7 +1,9 @@
 package uk.org.webcompere.systemstubs.stream;
 
 import org.junit.jupiter.api.Test;
+import uk.org.webcompere.systemstubs.stream.output.NoopPrintStream;
 import uk.org.webcompere.systemstubs.stream.output.NoopStream;
+import uk.org.webcompere.systemstubs.stream.output.TapStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -52,4 +54,48 @@ class SystemStreamBaseTest {
 
         assertThat(noopOut.getText()).isEmpty();
     }
+
+    @Test
+    void noopOutputIsReplacedWithPrintStreamThatDoesNothing() throws Exception {
+        noopOut.execute(() -> {
+            assertThat(System.out).isInstanceOf(NoopPrintStream.class);
+            System.out.println("Hello");
+            System.out.printf("%s %d%n", "Hello", 1);
+        });
+
+        assertThat(noopOut.getText()).isEmpty();
+    }
+
+    @Test
+    void bufferedOutputIsFlushedBeforeReading() throws Exception {
+        SystemOut bufferedOut = new SystemOut().buffered(8192);
+        bufferedOut.execute(() -> {
+            System.out.println("Hello");
+            assertThat(bufferedOut.getLines()).containsExactly("Hello");
+        });
+    }
+
+    @Test
+    void bufferedOutputReachesTheTargetOnTeardown() throws Exception {
+        TapStream tapStream = new TapStream();
+        new SystemOut(tapStream).buffered(8192)
+            .execute(() -> {
+                System.out.println("Hello");
+                assertThat(tapStream.getText()).isEmpty();
+            });
+
+        assertThat(tapStream.getLines()).containsExactly("Hello");
+    }
+
+    @Test
+    void bufferedOutputWrittenBeforeClearIsCleared() throws Exception {
+        SystemOut bufferedOut = new SystemOut().buffered(8192);
+        bufferedOut.execute(() -> {
+            System.out.println("Hello");
+            bufferedOut.clear();
+            System.out.println("World");
+        });
+
+        assertThat(bufferedOut.getLines()).containsExactly("World");
+    }
 }
@@ -0,0 +1,76 @@
+package uk.org.webcompere.systemstubs.stream.input;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+import static java.lang.System.lineSeparator;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GeneratedAltStreamTest {
+    @Test
+    void recordsAreGeneratedUpToTheLimit() throws Exception {
+        GeneratedAltStream stream = new GeneratedAltStream(i -> "record " + i)
+            .maxRecords(10_000);
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, Charset.defaultCharset()))) {
+            assertThat(reader.lines()).hasSize(10_000).endsWith("record 9999");
+        }
+        assertThat(stream.getRecordsGenerated()).isEqualTo(10_000);
+    }
+
+    @Test
+    void inputIsCutShortAtTheByteLimit() throws Exception {
+        GeneratedAltStream stream = new GeneratedAltStream(i -> "0123456789", false)
+            .maxBytes(25);
+
+        assertThat(new String(stream.readAllBytes(), Charset.defaultCharset()))
+            .isEqualTo("0123456789012345678901234");
+        assertThat(stream.getBytesRead()).isEqualTo(25);
+        assertThat(stream.available()).isZero();
+    }
+
+    @Test
+    void inputEndsWhenGeneratorReturnsNull() throws Exception {
+        GeneratedAltStream stream = new GeneratedAltStream(i -> i < 2 ? "line" : null);
+
+        assertThat(new String(stream.readAllBytes(), Charset.defaultCharset()))
+            .isEqualTo("line" + lineSeparator() + "line" + lineSeparator());
+    }
+
+    @Test
+    void checksumIsOfTheBytesRead() throws Exception {
+        GeneratedAltStream stream = new GeneratedAltStream(i -> "record " + i)
+            .maxRecords(1000);
+
+        byte[] bytes = stream.readAllBytes();
+        CRC32 expected = new CRC32();
+        expected.update(bytes);
+
+        assertThat(stream.getChecksum()).isEqualTo(expected.getValue());
+    }
+
+    @Test
+    void recordsAreOnlyGeneratedAsTheyAreRead() throws Exception {
+        GeneratedAltStream stream = new GeneratedAltStream(i -> "record " + i);
+
+        stream.read();
+
+        assertThat(stream.getRecordsGenerated()).isEqualTo(1);
+    }
+
+    @Test
+    void noMoreRecordsAreGeneratedOnceTheByteLimitIsReached() throws Exception {
+        GeneratedAltStream stream = new GeneratedAltStream(i -> "0123456789", false)
+            .maxBytes(20);
+
+        stream.readAllBytes();
+        assertThat(stream.getRecordsGenerated()).isEqualTo(2);
+
+        assertThat(stream.available()).isZero();
+        assertThat(stream.getRecordsGenerated()).isEqualTo(2);
+    }
+}
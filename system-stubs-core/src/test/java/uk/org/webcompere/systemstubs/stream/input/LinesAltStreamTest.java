@@ -0,0 +1,71 @@
+package uk.org.webcompere.systemstubs.stream.input;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.stream.Stream;
+
+import static java.lang.System.lineSeparator;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LinesAltStreamTest {
+    @Test
+    void linesCanBeReadAsText() throws Exception {
+        LinesAltStream stream = new LinesAltStream("Hello", "World");
+
+        assertThat(new String(stream.readAllBytes(), Charset.defaultCharset()))
+            .isEqualTo("Hello" + lineSeparator() + "World" + lineSeparator());
+    }
+
+    @Test
+    void linesCanBeJoinedWithoutLineBreaks() throws Exception {
+        LinesAltStream stream = new LinesAltStream(Stream.of("Hello", "World"), false);
+
+        assertThat(new String(stream.readAllBytes(), Charset.defaultCharset()))
+            .isEqualTo("HelloWorld");
+    }
+
+    @Test
+    void bulkReadSpansLines() throws Exception {
+        LinesAltStream stream = new LinesAltStream(Stream.of("ab", "cd", "ef"), false);
+        byte[] buffer = new byte[5];
+
+        assertThat(stream.read(buffer, 0, 5)).isEqualTo(5);
+        assertThat(new String(buffer, Charset.defaultCharset())).isEqualTo("abcde");
+        assertThat(stream.read(buffer, 0, 5)).isEqualTo(1);
+        assertThat(stream.read(buffer, 0, 5)).isEqualTo(-1);
+    }
+
+    @Test
+    void availableIsTheRestOfTheCurrentLine() throws Exception {
+        LinesAltStream stream = new LinesAltStream(Stream.of("abc", "", "de"), false);
+
+        assertThat(stream.available()).isEqualTo(3);
+        stream.read();
+        assertThat(stream.available()).isEqualTo(2);
+        stream.read(new byte[2], 0, 2);
+        assertThat(stream.available()).isEqualTo(2);
+        stream.read(new byte[2], 0, 2);
+        assertThat(stream.available()).isZero();
+        assertThat(stream.read()).isEqualTo(-1);
+    }
+
+    @Test
+    void infiniteLinesAreReadLazily() throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+            new LinesAltStream(Stream.generate(() -> "line")), Charset.defaultCharset()));
+
+        assertThat(reader.lines().limit(100_000)).hasSize(100_000).allMatch("line"::equals);
+    }
+
+    @Test
+    void longLinesAreReadInFull() throws Exception {
+        String longLine = "x".repeat(100_000);
+        LinesAltStream stream = new LinesAltStream(longLine);
+
+        assertThat(new String(stream.readAllBytes(), Charset.defaultCharset()))
+            .isEqualTo(longLine + lineSeparator());
+    }
+}
@@ -0,0 +1,83 @@
+package uk.org.webcompere.systemstubs.stream.input;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.org.webcompere.systemstubs.stream.SystemIn;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Scanner;
+
+import static java.lang.System.lineSeparator;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MappedFileAltStreamTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void fileCanBeReadInFull() throws Exception {
+        Path file = write("Hello world");
+
+        try (MappedFileAltStream stream = new MappedFileAltStream(file)) {
+            assertThat(stream.available()).isEqualTo(11);
+            assertThat(new String(stream.readAllBytes(), Charset.defaultCharset())).isEqualTo("Hello world");
+            assertThat(stream.available()).isZero();
+            assertThat(stream.read()).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    void readsContinueAcrossRegionsOfTheFile() throws Exception {
+        Path file = write("0123456789");
+
+        try (MappedFileAltStream stream = new MappedFileAltStream(file, 3)) {
+            byte[] buffer = new byte[7];
+            assertThat(stream.read(buffer, 0, 7)).isEqualTo(7);
+            assertThat(new String(buffer, Charset.defaultCharset())).isEqualTo("0123456");
+            assertThat(stream.read()).isEqualTo('7');
+        }
+    }
+
+    @Test
+    void canSkip() throws Exception {
+        Path file = write("0123456789");
+
+        try (MappedFileAltStream stream = new MappedFileAltStream(file, 4)) {
+            assertThat(stream.read()).isEqualTo('0');
+            assertThat(stream.skip(5)).isEqualTo(5);
+            assertThat(stream.read()).isEqualTo('6');
+            assertThat(stream.skip(100)).isEqualTo(3);
+            assertThat(stream.read()).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    void cannotReadOnceClosed() throws Exception {
+        MappedFileAltStream stream = new MappedFileAltStream(write("Hello"));
+        stream.close();
+
+        assertThatThrownBy(stream::read).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void fileCanBeSystemIn() throws Exception {
+        Path file = write("Hello" + lineSeparator() + "World" + lineSeparator());
+
+        new SystemIn(file)
+            .andExceptionThrownOnInputEnd(new IOException("end"))
+            .execute(() -> {
+                Scanner scanner = new Scanner(System.in);
+                assertThat(scanner.nextLine()).isEqualTo("Hello");
+                assertThat(scanner.nextLine()).isEqualTo("World");
+                assertThatThrownBy(System.in::read).hasMessage("end");
+            });
+    }
+
+    private Path write(String text) throws IOException {
+        return Files.writeString(tempDir.resolve("input"), text, Charset.defaultCharset());
+    }
+}
@@ -0,0 +1,177 @@
+package uk.org.webcompere.systemstubs.stream.input;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import uk.org.webcompere.systemstubs.stream.SystemIn;
+
+import java.io.IOException;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PipeAltStreamTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void afterEach() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void readsWhatWasWritten() throws Exception {
+        PipeAltStream pipe = new PipeAltStream();
+        pipe.getWriter().write("abc".getBytes());
+
+        byte[] buffer = new byte[10];
+        assertThat(pipe.available()).isEqualTo(3);
+        assertThat(pipe.read(buffer, 0, 10)).isEqualTo(3);
+        assertThat(new String(buffer, 0, 3)).isEqualTo("abc");
+    }
+
+    @Test
+    void endsWhenWriterClosedAndEverythingRead() throws Exception {
+        PipeAltStream pipe = new PipeAltStream();
+        pipe.getWriter().write('a');
+        pipe.getWriter().close();
+
+        assertThat(pipe.read()).isEqualTo('a');
+        assertThat(pipe.read()).isEqualTo(-1);
+        assertThat(pipe.read(new byte[10], 0, 10)).isEqualTo(-1);
+    }
+
+    @Test
+    void blockedReaderIsWokenByWrite() throws Exception {
+        PipeAltStream pipe = new PipeAltStream();
+        Future<String> line = executor.submit(() -> new Scanner(pipe).nextLine());
+
+        Thread.sleep(100);
+        assertThat(line).isNotDone();
+
+        pipe.getWriter().writeLine("hello");
+        assertThat(line.get(5, TimeUnit.SECONDS)).isEqualTo("hello");
+    }
+
+    @Test
+    void writerWaitsForReaderWhenFull() throws Exception {
+        PipeAltStream pipe = new PipeAltStream(4);
+        Future<?> writing = executor.submit(() -> {
+            pipe.getWriter().write("0123456789".getBytes());
+            pipe.getWriter().close();
+            return null;
+        });
+
+        Thread.sleep(100);
+        assertThat(writing).isNotDone();
+
+        assertThat(pipe.readAllBytes()).isEqualTo("0123456789".getBytes());
+        writing.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void capacityIsRoundedUpToPowerOfTwo() throws Exception {
+        PipeAltStream pipe = new PipeAltStream(5);
+        pipe.getWriter().write(new byte[8]);
+
+        assertThat(pipe.available()).isEqualTo(8);
+    }
+
+    @Test
+    void capacityMustBePositive() {
+        assertThatThrownBy(() -> new PipeAltStream(0))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void passesLargeInputThroughSmallBufferInOrder() throws Exception {
+        byte[] data = new byte[1_000_000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        PipeAltStream pipe = new PipeAltStream(64);
+        Future<?> writing = executor.submit(() -> {
+            for (int i = 0; i < data.length; i += 1000) {
+                pipe.getWriter().write(data, i, 1000);
+            }
+            pipe.getWriter().close();
+            return null;
+        });
+
+        CRC32 expected = new CRC32();
+        expected.update(data);
+        CRC32 actual = new CRC32();
+        byte[] buffer = new byte[777];
+        int read;
+        while ((read = pipe.read(buffer, 0, buffer.length)) != -1) {
+            actual.update(buffer, 0, read);
+        }
+
+        writing.get(5, TimeUnit.SECONDS);
+        assertThat(actual.getValue()).isEqualTo(expected.getValue());
+    }
+
+    @Test
+    void closingReaderFailsWriter() throws Exception {
+        PipeAltStream pipe = new PipeAltStream(4);
+        pipe.getWriter().write(new byte[4]);
+        Future<?> writing = executor.submit(() -> {
+            pipe.getWriter().write(1);
+            return null;
+        });
+
+        Thread.sleep(100);
+        pipe.close();
+
+        assertThatThrownBy(() -> writing.get(5, TimeUnit.SECONDS))
+            .hasRootCauseMessage("Pipe closed by the reader");
+        assertThatThrownBy(pipe::read)
+            .hasMessage("Stream closed");
+    }
+
+    @Test
+    void closingReaderWakesBlockedReader() throws Exception {
+        PipeAltStream pipe = new PipeAltStream();
+        Future<Integer> reading = executor.submit(() -> pipe.read());
+
+        Thread.sleep(100);
+        assertThat(reading).isNotDone();
+        pipe.close();
+
+        assertThatThrownBy(() -> reading.get(5, TimeUnit.SECONDS))
+            .hasRootCauseMessage("Stream closed");
+    }
+
+    @Test
+    void cannotWriteAfterClosingWriter() {
+        PipeAltStream pipe = new PipeAltStream();
+        pipe.getWriter().close();
+
+        assertThatThrownBy(() -> pipe.getWriter().write(1))
+            .isInstanceOf(IOException.class)
+            .hasMessage("Pipe closed");
+    }
+
+    @Nested
+    class WithSystemIn {
+        private final PipeAltStream pipe = new PipeAltStream();
+
+        @Test
+        void codeUnderTestReadsLinesAsTheyAreWritten() throws Exception {
+            new SystemIn(pipe).execute(() -> {
+                Scanner scanner = new Scanner(System.in);
+                Future<String> answer = executor.submit(() -> scanner.nextLine() + " " + scanner.nextLine());
+
+                pipe.getWriter().writeLine("first");
+                pipe.getWriter().writeLine("second");
+
+                assertThat(answer.get(5, TimeUnit.SECONDS)).isEqualTo("first second");
+            });
+        }
+    }
+}
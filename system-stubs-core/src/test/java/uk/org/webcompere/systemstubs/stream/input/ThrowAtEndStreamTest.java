@@ -2,9 +2,13 @@ package uk.org.webcompere.systemstubs.stream.input;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.Scanner;
+import java.util.stream.Stream;
 
+import static java.lang.System.lineSeparator;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
@@ -52,4 +56,53 @@ class ThrowAtEndStreamTest {
         assertThat(stream.read(new byte[12], 0, 0)).isZero();
     }
 
+    @Test
+    void eachReadReturnsUpToTheEndOfTheNextLine() throws Exception {
+        ThrowAtEndStream stream = new ThrowAtEndStream(new LinesAltStream("a", "bb", "ccc"), new IOException("boom"));
+        byte[] buffer = new byte[128];
+
+        assertThat(readString(stream, buffer, 128)).isEqualTo("a" + lineSeparator());
+        assertThat(readString(stream, buffer, 128)).isEqualTo("bb" + lineSeparator());
+        assertThat(readString(stream, buffer, 2)).isEqualTo("cc");
+        assertThat(readString(stream, buffer, 128)).isEqualTo("c" + lineSeparator());
+        assertThatThrownBy(() -> stream.read(buffer, 0, 128)).hasMessage("boom");
+    }
+
+    @Test
+    void lastLineWithoutSeparatorIsReturnedBeforeThrowing() throws Exception {
+        ThrowAtEndStream stream = new ThrowAtEndStream(new LinesAltStream(Stream.of("no", "break"), false),
+            new IOException("boom"));
+        byte[] buffer = new byte[128];
+
+        assertThat(readString(stream, buffer, 128)).isEqualTo("nobreak");
+        assertThatThrownBy(() -> stream.read(buffer, 0, 128)).hasMessage("boom");
+    }
+
+    @Test
+    void separatorSplitBetweenReadsEndsTheLine() throws Exception {
+        ThrowAtEndStream stream = new ThrowAtEndStream(new LinesAltStream("first", "second"), new IOException("boom"));
+        byte[] buffer = new byte[128];
+        int firstLineLength = ("first" + lineSeparator()).length();
+
+        assertThat(stream.read(buffer, 0, firstLineLength - 1)).isEqualTo(firstLineLength - 1);
+        assertThat(stream.read()).isEqualTo(lineSeparator().charAt(lineSeparator().length() - 1));
+        assertThat(readString(stream, buffer, 128)).isEqualTo("second" + lineSeparator());
+    }
+
+    @Test
+    void canReadManyLinesBeforeThrowing() throws Exception {
+        int lineCount = 100_000;
+        ThrowAtEndStream stream = new ThrowAtEndStream(
+            new GeneratedAltStream(index -> "line " + index).maxRecords(lineCount), new IOException("boom"));
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
+
+        for (int i = 0; i < lineCount; i++) {
+            assertThat(reader.readLine()).isEqualTo("line " + i);
+        }
+        assertThatThrownBy(reader::readLine).hasMessage("boom");
+    }
+
+    private static String readString(ThrowAtEndStream stream, byte[] buffer, int len) throws IOException {
+        return new String(buffer, 0, stream.read(buffer, 0, len));
+    }
 }
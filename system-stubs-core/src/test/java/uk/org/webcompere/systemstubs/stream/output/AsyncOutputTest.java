@@ -0,0 +1,174 @@
+package uk.org.webcompere.systemstubs.stream.output;
+
+import org.junit.jupiter.api.Test;
+import uk.org.webcompere.systemstubs.stream.SystemOut;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.org.webcompere.systemstubs.stream.output.AsyncOutput.OverflowPolicy.DROP;
+import static uk.org.webcompere.systemstubs.stream.output.AsyncOutput.OverflowPolicy.FAIL;
+import static uk.org.webcompere.systemstubs.stream.output.OutputFactories.async;
+import static uk.org.webcompere.systemstubs.stream.output.OutputFactories.ofMultiple;
+
+class AsyncOutputTest {
+    private static final byte[] TEN_BYTES = "0123456789".getBytes(Charset.defaultCharset());
+
+    @Test
+    void everythingWrittenReachesTheTarget() throws Exception {
+        TapStream tapStream = new TapStream();
+        AsyncOutput output = new AsyncOutput(tapStream, 16, AsyncOutput.OverflowPolicy.BLOCK);
+
+        new SystemOut(output).execute(() -> {
+            for (int i = 0; i < 1000; i++) {
+                System.out.println("line " + i);
+            }
+        });
+
+        assertThat(tapStream.getLines()).hasSize(1000).endsWith("line 999");
+    }
+
+    @Test
+    void textCanBeReadWhileActive() throws Exception {
+        SystemOut systemOut = new SystemOut(new AsyncOutput(new TapStream()));
+
+        systemOut.execute(() -> {
+            System.out.println("Hello");
+            assertThat(systemOut.getLines()).containsExactly("Hello");
+        });
+    }
+
+    @Test
+    void canWriteToOriginalStreamInTheBackground() throws Exception {
+        TapStream tapStream = new TapStream();
+        SystemOut systemOut = new SystemOut(ofMultiple(tapStream.factoryOfSelf(), async(Output::fromStream)));
+
+        systemOut.execute(() -> System.out.println("Hello"));
+
+        assertThat(tapStream.getLines()).containsExactly("Hello");
+    }
+
+    @Test
+    void writesWhichDontFitAreDropped() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        TapStream tapStream = new TapStream();
+        AsyncOutput output = new AsyncOutput(Output.fromStream(blockedUntil(release, tapStream)), 16, DROP);
+
+        output.write(TEN_BYTES);
+        output.write(TEN_BYTES);
+        output.write(TEN_BYTES);
+        release.countDown();
+        output.closeOutput();
+
+        assertThat(output.getDroppedBytes()).isPositive();
+        assertThat(tapStream.size() + output.getDroppedBytes()).isEqualTo(30);
+    }
+
+    @Test
+    void writesWhichDontFitCanFail() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AsyncOutput output = new AsyncOutput(Output.fromStream(blockedUntil(release, new TapStream())), 16, FAIL);
+
+        assertThatThrownBy(() -> {
+            for (int i = 0; i < 3; i++) {
+                output.write(TEN_BYTES);
+            }
+        }).isInstanceOf(AssertionError.class);
+
+        release.countDown();
+        output.closeOutput();
+    }
+
+    @Test
+    void errorsWritingAreReportedOnClose() throws Exception {
+        AsyncOutput output = new AsyncOutput(Output.fromStream(failingStream()));
+
+        output.write(TEN_BYTES);
+
+        assertThatThrownBy(output::closeOutput)
+            .isInstanceOf(IOException.class)
+            .hasMessageContaining("boom");
+    }
+
+    @Test
+    void errorClosingTheTargetDoesNotHideTheErrorWriting() throws Exception {
+        OutputStream failingToClose = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("boom");
+            }
+
+            @Override
+            public void close() throws IOException {
+                throw new IOException("cannot close");
+            }
+        };
+        AsyncOutput output = new AsyncOutput(Output.fromCloseableStream(failingToClose));
+
+        output.write(TEN_BYTES);
+
+        assertThatThrownBy(output::closeOutput)
+            .hasMessageContaining("boom")
+            .satisfies(thrown -> assertThat(thrown.getSuppressed())
+                .extracting(Throwable::getMessage)
+                .containsExactly("cannot close"));
+    }
+
+    @Test
+    void singleBytesReachTheTargetInOrder() throws Exception {
+        TapStream tapStream = new TapStream();
+        AsyncOutput output = new AsyncOutput(tapStream, 4, AsyncOutput.OverflowPolicy.BLOCK);
+
+        for (byte b : TEN_BYTES) {
+            output.write(b);
+        }
+
+        assertThat(output.getText()).isEqualTo("0123456789");
+    }
+
+    @Test
+    void errorWritingIsReportedUntilCleared() throws Exception {
+        AsyncOutput output = new AsyncOutput(Output.fromStream(failingStream()));
+
+        output.write(TEN_BYTES);
+
+        assertThatThrownBy(output::drain).hasMessageContaining("boom");
+        assertThatThrownBy(output::getText).hasMessageContaining("boom");
+        assertThatThrownBy(() -> output.write('a')).hasMessageContaining("boom");
+
+        output.clear();
+        output.drain();
+    }
+
+    private static OutputStream failingStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("boom");
+            }
+        };
+    }
+
+    private static OutputStream blockedUntil(CountDownLatch release, OutputStream target) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                target.write(b, off, len);
+            }
+        };
+    }
+}
@@ -0,0 +1,69 @@
+package uk.org.webcompere.systemstubs.stream.output;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChunkedBufferTest {
+    // includes characters of two, three and four bytes in UTF-8
+    private static final String TEXT = "h\u00e9llo w\u00f6rld \u20ac\ud83d\ude00 end";
+
+    @Test
+    void whenEmptyThenNoText() {
+        assertThat(new ChunkedBuffer().decode(StandardCharsets.UTF_8)).isEmpty();
+        assertThat(new ChunkedBuffer().toByteArray()).isEmpty();
+    }
+
+    @Test
+    void charactersSpanningChunksAreDecoded() {
+        byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+        for (int chunkSize = 1; chunkSize <= bytes.length + 1; chunkSize++) {
+            ChunkedBuffer buffer = new ChunkedBuffer(chunkSize);
+            buffer.write(bytes, 0, bytes.length);
+            buffer.write(bytes, 0, bytes.length);
+
+            assertThat(buffer.decode(StandardCharsets.UTF_8)).isEqualTo(TEXT + TEXT);
+            assertThat(buffer.size()).isEqualTo(bytes.length * 2L);
+        }
+    }
+
+    @Test
+    void bytesWrittenOneAtATimeAreDecoded() {
+        ChunkedBuffer buffer = new ChunkedBuffer(3);
+        for (byte b : TEXT.getBytes(StandardCharsets.UTF_8)) {
+            buffer.write(b);
+        }
+
+        assertThat(buffer.decode(StandardCharsets.UTF_8)).isEqualTo(TEXT);
+    }
+
+    @Test
+    void canReadBackAllBytesAcrossChunks() throws Exception {
+        byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+        ChunkedBuffer buffer = new ChunkedBuffer(4);
+        buffer.write(bytes, 0, bytes.length);
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        buffer.writeTo(written);
+
+        assertThat(buffer.toByteArray()).isEqualTo(bytes);
+        assertThat(written.toByteArray()).isEqualTo(bytes);
+    }
+
+    @Test
+    void afterResetTheBufferIsEmptyAndCanBeReused() {
+        ChunkedBuffer buffer = new ChunkedBuffer(2);
+        byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+        buffer.write(bytes, 0, bytes.length);
+
+        buffer.reset();
+        assertThat(buffer.size()).isZero();
+        assertThat(buffer.decode(StandardCharsets.UTF_8)).isEmpty();
+
+        buffer.write(bytes, 0, 5);
+        assertThat(buffer.decode(StandardCharsets.UTF_8)).isEqualTo("h\u00e9ll");
+    }
+}
@@ -0,0 +1,95 @@
+package uk.org.webcompere.systemstubs.stream.output;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.org.webcompere.systemstubs.stream.SystemOut;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.org.webcompere.systemstubs.stream.output.FileChannelOutput.ForcePolicy.FORCE_PERIODICALLY;
+import static uk.org.webcompere.systemstubs.stream.output.OutputFactories.writeToFile;
+
+class FileChannelOutputTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void outputIsWrittenToTheFile() throws Exception {
+        Path target = tempDir.resolve("file");
+        FileChannelOutput output = new FileChannelOutput(target).bufferSize(16);
+
+        new SystemOut(output).execute(() -> {
+            for (int i = 0; i < 1000; i++) {
+                System.out.println("line " + i);
+            }
+        });
+
+        assertThat(Files.readAllLines(target)).hasSize(1000).endsWith("line 999");
+        assertThat(output.getText()).isEqualTo(Files.readString(target));
+    }
+
+    @Test
+    void printedLinesCanBeReadFromTheFileWhileActive() throws Exception {
+        Path target = tempDir.resolve("file");
+        SystemOut systemOut = new SystemOut(writeToFile(target));
+
+        systemOut.execute(() -> {
+            System.out.println("Hello");
+            assertThat(target).hasContent("Hello" + System.lineSeparator());
+            assertThat(systemOut.getLines()).containsExactly("Hello");
+        });
+    }
+
+    @Test
+    void unflushedTextCanBeReadWhileActive() throws Exception {
+        Path target = tempDir.resolve("file");
+        SystemOut systemOut = new SystemOut(writeToFile(target));
+
+        systemOut.execute(() -> {
+            System.out.print("Hello");
+            assertThat(systemOut.getText()).isEqualTo("Hello");
+            assertThat(target).hasContent("Hello");
+        });
+    }
+
+    @Test
+    void canAppendToTheFile() throws Exception {
+        Path target = tempDir.resolve("file");
+        Files.writeString(target, "Hello ");
+
+        new SystemOut(new FileChannelOutput(target).append(true))
+            .execute(() -> System.out.print("world"));
+
+        assertThat(target).hasContent("Hello world");
+    }
+
+    @Test
+    void periodicForcingStillWritesTheFileOnFlush() throws Exception {
+        Path target = tempDir.resolve("file");
+        FileChannelOutput output = new FileChannelOutput(target)
+            .forcePolicy(FORCE_PERIODICALLY)
+            .forceInterval(Duration.ZERO);
+
+        new SystemOut(output).execute(() -> {
+            System.out.println("Hello");
+            assertThat(Files.readString(target)).isEqualTo("Hello" + System.lineSeparator());
+        });
+    }
+
+    @Test
+    void clearEmptiesTheFile() throws Exception {
+        Path target = tempDir.resolve("file");
+        FileChannelOutput output = new FileChannelOutput(target);
+
+        new SystemOut(output).execute(() -> {
+            System.out.println("Hello");
+            output.clear();
+            System.out.print("world");
+        });
+
+        assertThat(target).hasContent("world");
+    }
+}
@@ -2,7 +2,11 @@ package uk.org.webcompere.systemstubs.stream.output;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static uk.org.webcompere.systemstubs.stream.SystemStreamBase.wrap;
@@ -48,4 +52,27 @@ class MultiplexOutputTest {
         assertThat(tapStream1.getText()).isEmpty();
         assertThat(tapStream2.getText()).isEmpty();
     }
+
+    @Test
+    void multiplexTwoStream_thenArrayIsWrittenToEachInOneCall() throws Exception {
+        List<Integer> writeLengths = new ArrayList<>();
+        OutputStream counting = new OutputStream() {
+            @Override
+            public void write(int b) {
+                writeLengths.add(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                writeLengths.add(len);
+            }
+        };
+        TapStream tapStream = new TapStream();
+        MultiplexOutput multiplexOutput = new MultiplexOutput(tapStream, Output.fromStream(counting));
+
+        multiplexOutput.write("Foo".getBytes(Charset.defaultCharset()), 0, 3);
+
+        assertThat(writeLengths).containsExactly(3);
+        assertThat(tapStream.getText()).isEqualTo("Foo");
+    }
 }
@@ -0,0 +1,99 @@
+package uk.org.webcompere.systemstubs.stream.output;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.org.webcompere.systemstubs.stream.SystemOut;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SpillingTapStreamTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void outputBelowTheThresholdStaysInMemory() throws Exception {
+        SpillingTapStream stream = new SpillingTapStream(100, tempDir);
+        stream.write("Foo".getBytes(Charset.defaultCharset()));
+
+        assertThat(stream.isSpilled()).isFalse();
+        assertThat(stream.getText()).isEqualTo("Foo");
+        assertThat(tempDir).isEmptyDirectory();
+    }
+
+    @Test
+    void outputAboveTheThresholdIsMovedToAFile() throws Exception {
+        SpillingTapStream stream = new SpillingTapStream(10, tempDir);
+        String text = IntStream.range(0, 20000)
+            .mapToObj(i -> "line " + i + "\n")
+            .collect(Collectors.joining());
+        stream.write(text.getBytes(Charset.defaultCharset()));
+
+        assertThat(stream.isSpilled()).isTrue();
+        assertThat(stream.size()).isEqualTo(text.length());
+        assertThat(stream.getText()).isEqualTo(text);
+        assertThat(Files.list(tempDir)).hasSize(1);
+
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        stream.writeTo(copy);
+        assertThat(copy.toString(Charset.defaultCharset())).isEqualTo(text);
+    }
+
+    @Test
+    void bytesWrittenOneAtATimeAreKeptInOrder() throws Exception {
+        SpillingTapStream stream = new SpillingTapStream(1, tempDir);
+        String text = IntStream.range(0, 30000)
+            .mapToObj(i -> "\u00e9\u20ac")
+            .collect(Collectors.joining());
+        byte[] bytes = text.getBytes(Charset.forName("UTF-8"));
+        for (byte b : bytes) {
+            stream.write(b);
+        }
+
+        assertThat(stream.isSpilled()).isTrue();
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        stream.writeTo(copy);
+        assertThat(copy.toByteArray()).isEqualTo(bytes);
+    }
+
+    @Test
+    void clearDeletesTheFile() throws Exception {
+        SpillingTapStream stream = new SpillingTapStream(1, tempDir);
+        stream.write("Foo".getBytes(Charset.defaultCharset()));
+
+        stream.clear();
+        stream.write('a');
+
+        assertThat(stream.isSpilled()).isFalse();
+        assertThat(stream.getText()).isEqualTo("a");
+        assertThat(tempDir).isEmptyDirectory();
+    }
+
+    @Test
+    void spilledOutputCannotBeReadAfterTearDown() throws Exception {
+        SpillingTapStream stream = new SpillingTapStream(1, tempDir);
+        new SystemOut(stream).execute(() -> {
+            System.out.println("Foo");
+            assertThat(stream.getText()).startsWith("Foo");
+        });
+
+        assertThat(tempDir).isEmptyDirectory();
+        assertThatThrownBy(stream::getText)
+            .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void outputKeptInMemoryCanBeReadAfterTearDown() throws Exception {
+        SpillingTapStream stream = new SpillingTapStream();
+        new SystemOut(stream).execute(() -> System.out.print("Foo"));
+
+        assertThat(stream.getText()).isEqualTo("Foo");
+    }
+}
@@ -0,0 +1,131 @@
+package uk.org.webcompere.systemstubs.stream.output;
+
+import org.junit.jupiter.api.Test;
+import uk.org.webcompere.systemstubs.stream.SystemOut;
+
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.org.webcompere.systemstubs.stream.SystemStreamBase.wrap;
+import static uk.org.webcompere.systemstubs.stream.output.OutputFactories.ofMultiplePlusOriginal;
+
+class TailStreamTest {
+
+    @Test
+    void keepsTheLastBytes() throws Exception {
+        TailStream tail = TailStream.lastBytes(5);
+        tail.write("Hello ".getBytes(Charset.defaultCharset()));
+        tail.write('w');
+        tail.write("orld".getBytes(Charset.defaultCharset()));
+
+        assertThat(tail.getText()).isEqualTo("world");
+        assertThat(tail.isTruncated()).isTrue();
+    }
+
+    @Test
+    void keepsEverythingWhenBelowCapacity() throws Exception {
+        TailStream tail = TailStream.lastBytes(100);
+        tail.write("Hello".getBytes(Charset.defaultCharset()));
+
+        assertThat(tail.getText()).isEqualTo("Hello");
+        assertThat(tail.isTruncated()).isFalse();
+    }
+
+    @Test
+    void keepsTheLastLines() throws Exception {
+        TailStream tail = TailStream.lastLines(2);
+        PrintStream printer = wrap(tail);
+        for (int i = 0; i < 10000; i++) {
+            printer.println("line " + i);
+        }
+
+        assertThat(tail.getLines()).containsExactly("line 9998", "line 9999");
+    }
+
+    @Test
+    void anIncompleteLineIsOneOfTheLastLines() throws Exception {
+        TailStream tail = TailStream.lastLines(2);
+        tail.write("a\nb\nc".getBytes(Charset.defaultCharset()));
+
+        assertThat(tail.getText()).isEqualTo("b\nc");
+    }
+
+    @Test
+    void longLinesAreKeptInFull() throws Exception {
+        TailStream tail = TailStream.lastLines(1);
+        String longLine = "x".repeat(10000);
+        tail.write(("short\n" + longLine).getBytes(Charset.defaultCharset()));
+
+        assertThat(tail.getText()).isEqualTo(longLine);
+    }
+
+    @Test
+    void onlyTheEndOfALineTooLongForTheByteLimitIsKept() throws Exception {
+        TailStream tail = TailStream.lastLines(2, 10);
+        PrintStream printer = wrap(tail);
+        printer.println("Starting");
+        for (int i = 0; i <= 100; i++) {
+            printer.print("\r" + i + "%");
+        }
+
+        assertThat(tail.getText()).isEqualTo("%\r99%\r100%");
+        assertThat(tail.isTruncated()).isTrue();
+    }
+
+    @Test
+    void linesAreLimitedToTheDefaultByteLimit() throws Exception {
+        TailStream tail = TailStream.lastLines(1);
+        byte[] chunk = new byte[64 * 1024];
+        for (int i = 0; i < 100; i++) {
+            tail.write(chunk);
+            tail.write('x');
+        }
+
+        byte[] retained = tail.toByteArray();
+        assertThat(retained).hasSize(TailStream.DEFAULT_MAX_LINE_BYTES);
+        assertThat(retained[retained.length - 1]).isEqualTo((byte) 'x');
+    }
+
+    @Test
+    void linesKeptAfterALongLineAreCountedAsUsual() throws Exception {
+        TailStream tail = TailStream.lastLines(2, 16);
+        tail.write(("x".repeat(100) + "\nab\ncd\n").getBytes(Charset.defaultCharset()));
+
+        assertThat(tail.getText()).isEqualTo("ab\ncd\n");
+    }
+
+    @Test
+    void clearEmptiesTheTail() throws Exception {
+        TailStream tail = TailStream.lastLines(1);
+        tail.write("a\nb\n".getBytes(Charset.defaultCharset()));
+
+        tail.clear();
+
+        assertThat(tail.getText()).isEmpty();
+        assertThat(tail.isTruncated()).isFalse();
+    }
+
+    @Test
+    void canTailSystemOutAlongsideTheOriginal() throws Exception {
+        TailStream tail = TailStream.lastLines(1);
+        new SystemOut(ofMultiplePlusOriginal(tail))
+            .execute(() -> {
+                System.out.println("Working...");
+                System.out.println("Done");
+            });
+
+        assertThat(tail.getLines()).containsExactly("Done");
+    }
+
+    @Test
+    void capacityMustBePositive() {
+        assertThatThrownBy(() -> TailStream.lastBytes(0))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> TailStream.lastLines(-1))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> TailStream.lastLines(1, 0))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,141 @@
+package uk.org.webcompere.systemstubs.stream.output;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.org.webcompere.systemstubs.stream.SystemStreamBase.wrap;
+
+class TapStreamTest {
+
+    @Test
+    void printedTextCanBeRead() throws Exception {
+        TapStream tapStream = new TapStream();
+        PrintStream printer = wrap(tapStream);
+        printer.println("Foo");
+        printer.println("Bar");
+
+        assertThat(tapStream.getLines()).containsExactly("Foo", "Bar");
+        assertThat(tapStream.toString()).isEqualTo(tapStream.getText());
+    }
+
+    @Test
+    void outputLargerThanOneChunkIsKeptInFull() throws Exception {
+        byte[] bytes = new byte[ChunkedBuffer.DEFAULT_CHUNK_SIZE * 3 + 17];
+        Arrays.fill(bytes, (byte) 'a');
+        TapStream tapStream = new TapStream();
+        tapStream.write(bytes);
+        tapStream.write('b');
+
+        assertThat(tapStream.size()).isEqualTo(bytes.length + 1);
+        assertThat(tapStream.getText()).hasSize(bytes.length + 1).endsWith("ab");
+        assertThat(tapStream.toByteArray()).startsWith(bytes);
+
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        tapStream.writeTo(copy);
+        assertThat(copy.size()).isEqualTo(bytes.length + 1);
+    }
+
+    @Test
+    void clearEmptiesTheTap() throws Exception {
+        TapStream tapStream = new TapStream();
+        tapStream.write("Foo".getBytes(Charset.defaultCharset()));
+
+        tapStream.clear();
+
+        assertThat(tapStream.getText()).isEmpty();
+        assertThat(tapStream.size()).isZero();
+    }
+
+    @Test
+    void cannotWriteOutsideTheArray() {
+        TapStream tapStream = new TapStream();
+
+        assertThatThrownBy(() -> tapStream.write(new byte[2], 1, 2))
+            .isInstanceOf(IndexOutOfBoundsException.class);
+    }
+
+    @Test
+    void linesCanBeReadByIndex() throws Exception {
+        TapStream tapStream = new TapStream();
+        PrintStream printer = wrap(tapStream);
+        printer.println("Foo");
+        printer.print("Bar");
+
+        assertThat(tapStream.lineCount()).isEqualTo(2);
+        assertThat(tapStream.getLine(0)).isEqualTo("Foo");
+        assertThat(tapStream.getLine(1)).isEqualTo("Bar");
+        assertThatThrownBy(() -> tapStream.getLine(2))
+            .isInstanceOf(IndexOutOfBoundsException.class);
+    }
+
+    @Test
+    void linesMatchSplittingTheText() throws Exception {
+        TapStream tapStream = new TapStream();
+        PrintStream printer = wrap(tapStream);
+        printer.println();
+        printer.println("Foo");
+        printer.println();
+        printer.println("Bar");
+        printer.println();
+        printer.println();
+
+        assertThat(tapStream.getLines())
+            .containsExactly(tapStream.getText().split(System.lineSeparator()));
+        assertThat(tapStream.lineCount()).isEqualTo(4);
+    }
+
+    @Test
+    void emptyTapHasOneEmptyLine() {
+        TapStream tapStream = new TapStream();
+
+        assertThat(tapStream.getLines()).containsExactly("");
+        assertThat(tapStream.lineCount()).isEqualTo(1);
+    }
+
+    @Test
+    void linesWrittenAfterGettingTheStreamAreNotIncluded() throws Exception {
+        TapStream tapStream = new TapStream();
+        PrintStream printer = wrap(tapStream);
+        printer.println("Foo");
+
+        Stream<String> lines = tapStream.getLines();
+        printer.println("Bar");
+
+        assertThat(lines).containsExactly("Foo");
+        assertThat(tapStream.getLines()).containsExactly("Foo", "Bar");
+    }
+
+    @Test
+    void characterSplitBetweenWritesIsDecodedWhenComplete() throws Exception {
+        TapStream tapStream = new TapStream();
+        byte[] bytes = "a\u00e9\u20ac".getBytes(Charset.defaultCharset());
+        for (byte b : bytes) {
+            tapStream.write(b);
+            assertThat(tapStream.getText()).isEqualTo(tapStream.toString(Charset.defaultCharset()));
+        }
+
+        assertThat(tapStream.getText()).isEqualTo(new String(bytes, Charset.defaultCharset()));
+    }
+
+    @Test
+    void textIsNotDecodedAgainUntilMoreIsWritten() throws Exception {
+        TapStream tapStream = new TapStream();
+        tapStream.write("Foo".getBytes(Charset.defaultCharset()));
+
+        String text = tapStream.getText();
+        assertThat(tapStream.getText()).isSameAs(text);
+
+        tapStream.write("Bar".getBytes(Charset.defaultCharset()));
+        assertThat(tapStream.getText()).isEqualTo("FooBar");
+
+        tapStream.clear();
+        assertThat(tapStream.getText()).isEmpty();
+    }
+}
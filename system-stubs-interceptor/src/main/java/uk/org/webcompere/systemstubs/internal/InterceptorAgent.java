@@ -0,0 +1,52 @@
+package uk.org.webcompere.systemstubs.internal;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+import java.io.File;
+import java.lang.instrument.Instrumentation;
+import java.util.jar.JarFile;
+
+/**
+ * Java agent entry point, used by launching the JVM with <code>-javaagent</code> pointing at this jar.
+ * This puts the interceptor on the boot class path at startup and keeps the {@link Instrumentation}, so that
+ * environment variable mocking does not have to attach an agent to the running JVM, or extract a copy of this
+ * jar into a temporary file, when it is first used.
+ */
+public class InterceptorAgent {
+    private static volatile Instrumentation instrumentation;
+
+    /**
+     * Called by the JVM before <code>main</code> when this jar is used as a java agent
+     * @param agentArgs arguments to the agent - not used
+     * @param instrumentation the instrumentation provided by the JVM
+     * @throws Exception on any error setting up the interceptor
+     */
+    public static void premain(String agentArgs, Instrumentation instrumentation) throws Exception {
+        File agentJar = new File(InterceptorAgent.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        instrumentation.appendToBootstrapClassLoaderSearch(new JarFile(agentJar));
+
+        // this class was loaded by the system class loader, so pass the instrumentation to the copy
+        // that the boot loader now provides, which is the one the mocker will look for
+        Class.forName(InterceptorAgent.class.getName(), true, null)
+            .getMethod("setInstrumentation", Instrumentation.class)
+            .invoke(null, instrumentation);
+    }
+
+    /**
+     * The instrumentation provided when running as an agent
+     * @return the instrumentation, or <code>null</code> if not running as an agent
+     */
+    @SuppressFBWarnings("MS_EXPOSE_REP")
+    public static Instrumentation getInstrumentation() {
+        return instrumentation;
+    }
+
+    /**
+     * For use by {@link #premain(String, Instrumentation)} only
+     * @param instrumentation the instrumentation provided to the agent
+     */
+    @SuppressFBWarnings("EI_EXPOSE_STATIC_REP2")
+    public static void setInstrumentation(Instrumentation instrumentation) {
+        InterceptorAgent.instrumentation = instrumentation;
+    }
+}
@@ -3,15 +3,34 @@ package uk.org.webcompere.systemstubs.internal;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 import java.util.*;
-
-import static java.util.stream.Collectors.toSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Plugs into the boot loader to provide an alternative implementation to ProcessEnvironment
  * controllable at test time.
  */
 public class ProcessEnvironmentInterceptor {
-    private static Map<String, String> CURRENT_ENVIRONMENT_VARIABLES = new HashMap<>();
+    private static volatile Environment currentEnvironment = new Environment(new HashMap<>());
+
+    // per thread overlays are only consulted once something has used them
+    private static volatile boolean threadEnvironmentsUsed;
+    private static final ThreadLocal<ThreadStack> THREAD_ENVIRONMENT_STACK = new ThreadLocal<>();
+    private static final InheritableThreadLocal<ThreadBinding> THREAD_ENVIRONMENT =
+        new InheritableThreadLocal<>() {
+            @Override
+            protected ThreadBinding childValue(ThreadBinding parentValue) {
+                return parentValue == null || parentValue.inherited ? parentValue :
+                    new ThreadBinding(parentValue.environment, true);
+            }
+        };
+
+    // how much mocking is in place, for interception which runs the original code when there is none
+    private static final AtomicInteger ACTIVE_ENVIRONMENTS = new AtomicInteger();
+
+    // the last environment block encoded for a child process
+    private static volatile EnvironmentBlock lastEnvironmentBlock;
 
     @SuppressFBWarnings("URF_UNREAD_FIELD")
     private static Map<String, String> theEnvironment;
@@ -23,20 +42,57 @@ public class ProcessEnvironmentInterceptor {
      */
     @SuppressFBWarnings("EI_EXPOSE_STATIC_REP2")
     public static void setEnv(Map<String, String> env) {
-        CURRENT_ENVIRONMENT_VARIABLES = env;
+        currentEnvironment = new Environment(env);
 
         // this copy exposes process environment to tools looking to mock it
-        theEnvironment = Collections.unmodifiableMap(CURRENT_ENVIRONMENT_VARIABLES);
+        theEnvironment = Collections.unmodifiableMap(env);
+    }
+
+    /**
+     * For use by the EnvironmentMocker - records that a set of variables has been added to the global
+     * environment, so that mocking is active until the matching {@link #deactivate()}
+     */
+    public static void activate() {
+        ACTIVE_ENVIRONMENTS.incrementAndGet();
+    }
+
+    /**
+     * For use by the EnvironmentMocker - records that a set of variables has been taken out of the global
+     * environment
+     */
+    public static void deactivate() {
+        ACTIVE_ENVIRONMENTS.decrementAndGet();
+    }
+
+    /**
+     * Whether any mocking is in place, either globally or for some thread. When interception is inlined
+     * into <code>ProcessEnvironment</code>, the original implementation is used whenever this is false.
+     * @return true if calls should be diverted to this interceptor
+     */
+    public static boolean isActive() {
+        return ACTIVE_ENVIRONMENTS.get() > 0;
+    }
+
+    /**
+     * Whether an environment map should be converted for a child process by this interceptor. As well as
+     * when mocking is active, this is true for maps produced by {@link #environment()} while it was active,
+     * which the original implementation cannot convert.
+     * @param m the map of variables for the child process
+     * @return true if {@link #toEnvironmentBlock(Map, int[])} or {@link #toEnvironmentBlock(Map)} should be used
+     */
+    public static boolean isMocked(Map<String, String> m) {
+        return isActive() || (m != null && m.getClass() == HashMap.class);
     }
 
     /**
      * The equivalent of <code>getenv</code> in the original ProcessEnvironment, assuming that
      * mocking is "turned on"
-     * @return the current effective environment
+     * @return the current effective environment - a read-only view which hides any variables set to
+     *     <code>null</code>
      */
     @SuppressFBWarnings("MS_EXPOSE_REP")
     public static Map<String, String> getenv() {
-        return Collections.unmodifiableMap(filterNulls(CURRENT_ENVIRONMENT_VARIABLES));
+        return resolveEnvironment().view;
     }
 
     /**
@@ -45,7 +101,124 @@ public class ProcessEnvironmentInterceptor {
      * @return the value or null
      */
     public static String getenv(String name) {
-        return getenv().get(name);
+        return resolveEnvironment().variables.get(name);
+    }
+
+    /**
+     * For use by the EnvironmentMocker - the variables the current thread sees in place of the global
+     * environment, whether pushed by this thread, inherited from the thread which created it, or passed to it
+     * with {@link #propagateThreadEnv(Runnable)}. Workers of a <code>ForkJoinPool</code> don't inherit
+     * variables, as they go on to run tasks for anyone using the pool
+     * @return the thread's variables, or <code>null</code> if it sees the global environment
+     */
+    public static Map<String, String> getThreadEnv() {
+        Environment environment = threadEnvironment();
+        return environment == null ? null : environment.variables;
+    }
+
+    /**
+     * For use by the EnvironmentMocker - the sets of variables pushed by the current thread
+     * @return the maps given to {@link #pushThreadEnv(Map)} and not yet removed, the most recent first
+     */
+    public static List<Map<String, String>> getThreadEnvStack() {
+        ThreadStack stack = THREAD_ENVIRONMENT_STACK.get();
+        if (stack == null) {
+            return Collections.emptyList();
+        }
+        List<Map<String, String>> result = new ArrayList<>(stack.layers.size());
+        stack.layers.forEach(environment -> result.add(environment.variables));
+        return result;
+    }
+
+    /**
+     * For use by the EnvironmentMocker - overrides the effective environment variables for the current
+     * thread only, and any threads it subsequently creates. Each call stacks a new set of variables on top of
+     * those already set for the thread.
+     * @param env the environment variable map to use - this is kept by reference and so is mutable
+     */
+    public static void pushThreadEnv(Map<String, String> env) {
+        threadEnvironmentsUsed = true;
+        ThreadStack stack = THREAD_ENVIRONMENT_STACK.get();
+        if (stack == null) {
+            stack = new ThreadStack(THREAD_ENVIRONMENT.get());
+            THREAD_ENVIRONMENT_STACK.set(stack);
+        }
+        Environment environment = new Environment(env);
+        stack.layers.push(environment);
+        THREAD_ENVIRONMENT.set(new ThreadBinding(environment, false));
+        ACTIVE_ENVIRONMENTS.incrementAndGet();
+    }
+
+    /**
+     * Remove a set of variables previously provided to {@link #pushThreadEnv(Map)} by the current thread.
+     * Any threads that inherited those variables revert to the global environment. Once the thread has
+     * removed all that it pushed, it goes back to the environment it had before, which it may have inherited.
+     * @param env the environment variable map to remove
+     * @return true if the map was found on the current thread and removed
+     */
+    public static boolean removeThreadEnv(Map<String, String> env) {
+        ThreadStack stack = THREAD_ENVIRONMENT_STACK.get();
+        if (stack == null) {
+            return false;
+        }
+        Iterator<Environment> iterator = stack.layers.iterator();
+        boolean removed = false;
+        while (iterator.hasNext() && !removed) {
+            Environment environment = iterator.next();
+            if (environment.variables == env) {
+                environment.detached = true;
+                iterator.remove();
+                removed = true;
+                ACTIVE_ENVIRONMENTS.decrementAndGet();
+            }
+        }
+
+        if (stack.layers.isEmpty()) {
+            THREAD_ENVIRONMENT_STACK.remove();
+            setThreadEnvironment(stack.base);
+        } else {
+            THREAD_ENVIRONMENT.set(new ThreadBinding(stack.layers.peek(), false));
+        }
+        return removed;
+    }
+
+    /**
+     * Wrap a task so that it sees the same environment as the current thread, whichever thread runs it.
+     * Use this for tasks sent to an executor whose threads were not created by this thread.
+     * @param runnable the task
+     * @return a task which runs with the current thread's environment
+     */
+    public static Runnable propagateThreadEnv(Runnable runnable) {
+        ThreadBinding captured = capturedThreadEnvironment();
+        return () -> {
+            ThreadBinding previous = THREAD_ENVIRONMENT.get();
+            setThreadEnvironment(captured);
+            try {
+                runnable.run();
+            } finally {
+                setThreadEnvironment(previous);
+            }
+        };
+    }
+
+    /**
+     * Wrap a task so that it sees the same environment as the current thread, whichever thread runs it.
+     * Use this for tasks sent to an executor whose threads were not created by this thread.
+     * @param callable the task
+     * @param <T> the type of result
+     * @return a task which runs with the current thread's environment
+     */
+    public static <T> Callable<T> propagateThreadEnv(Callable<T> callable) {
+        ThreadBinding captured = capturedThreadEnvironment();
+        return () -> {
+            ThreadBinding previous = THREAD_ENVIRONMENT.get();
+            setThreadEnvironment(captured);
+            try {
+                return callable.call();
+            } finally {
+                setThreadEnvironment(previous);
+            }
+        };
     }
 
     /**
@@ -100,29 +273,41 @@ public class ProcessEnvironmentInterceptor {
     }
 
     /**
-     * Convert the requested environment variables to a Nix format
+     * Convert the requested environment variables to a Nix format. The last block produced is cached, so
+     * launching processes repeatedly with the same environment does not repeat the encoding.
      * @param m the map of variables
      * @param envc the target array to receive the size
      * @return the byte array of environment variables
      */
     // code taken from the original in ProcessEnvironment
-    @SuppressFBWarnings({"PZLA_PREFER_ZERO_LENGTH_ARRAYS", "DM_DEFAULT_ENCODING"})
+    @SuppressFBWarnings("PZLA_PREFER_ZERO_LENGTH_ARRAYS")
     public static byte[] toEnvironmentBlock(Map<String, String> m, int[] envc) {
         if (m == null) {
             return null;
         }
+
+        EnvironmentBlock lastBlock = lastEnvironmentBlock;
+        if (lastBlock != null && lastBlock.variables.equals(m)) {
+            envc[0] = lastBlock.variableCount;
+            return lastBlock.block.clone();
+        }
+
+        byte[][] encoded = new byte[m.size() * 2][];
         int count = m.size() * 2; // For added '=' and NUL
+        int e = 0;
         for (Map.Entry<String, String> entry : m.entrySet()) {
-            count += entry.getKey().getBytes().length;
-            count += entry.getValue().getBytes().length;
+            encoded[e] = encode(entry.getKey());
+            encoded[e + 1] = encode(entry.getValue());
+            count += encoded[e].length + encoded[e + 1].length;
+            e += 2;
         }
 
         byte[] block = new byte[count];
 
         int i = 0;
-        for (Map.Entry<String, String> entry : m.entrySet()) {
-            final byte[] key   = entry.getKey().getBytes();
-            final byte[] value = entry.getValue().getBytes();
+        for (e = 0; e < encoded.length; e += 2) {
+            final byte[] key   = encoded[e];
+            final byte[] value = encoded[e + 1];
             System.arraycopy(key, 0, block, i, key.length);
             i += key.length;
             block[i++] = (byte) '=';
@@ -132,18 +317,29 @@ public class ProcessEnvironmentInterceptor {
             //block[i++] = (byte) '\u0000';
         }
         envc[0] = m.size();
-        return block;
+
+        lastEnvironmentBlock = new EnvironmentBlock(new HashMap<>(m), block, envc[0]);
+        return block.clone();
     }
 
-    private static Map<String, String> filterNulls(Map<String, String> currentMockedEnvironment) {
-        var nullsToRemove = currentMockedEnvironment.entrySet()
-            .stream()
-            .filter(entry -> entry.getValue() == null)
-            .map(Map.Entry::getKey)
-            .collect(toSet());
+    @SuppressFBWarnings("DM_DEFAULT_ENCODING")
+    private static byte[] encode(String text) {
+        return text.getBytes();
+    }
+
+    /**
+     * The last environment block sent to a child process, along with the variables it was made from
+     */
+    private static final class EnvironmentBlock {
+        private final Map<String, String> variables;
+        private final byte[] block;
+        private final int variableCount;
 
-        nullsToRemove.forEach(currentMockedEnvironment::remove);
-        return currentMockedEnvironment;
+        EnvironmentBlock(Map<String, String> variables, byte[] block, int variableCount) {
+            this.variables = variables;
+            this.block = block;
+            this.variableCount = variableCount;
+        }
     }
 
     @SuppressFBWarnings("SE_COMPARATOR_SHOULD_BE_SERIALIZABLE")
@@ -178,9 +374,163 @@ public class ProcessEnvironmentInterceptor {
         }
     }
 
+    private static Environment resolveEnvironment() {
+        if (threadEnvironmentsUsed) {
+            Environment threadEnvironment = threadEnvironment();
+            if (threadEnvironment != null) {
+                return threadEnvironment;
+            }
+        }
+        return currentEnvironment;
+    }
+
+    // the environment of the current thread, or null if it uses the global environment
+    private static Environment threadEnvironment() {
+        ThreadBinding binding = THREAD_ENVIRONMENT.get();
+        if (binding == null || binding.environment.detached) {
+            return null;
+        }
+        if (binding.inherited && Thread.currentThread() instanceof ForkJoinWorkerThread) {
+            // pool workers are shared, so must not keep the environment of whoever started them
+            return null;
+        }
+        return binding.environment;
+    }
+
+    // the current thread's environment, to be given explicitly to a task
+    private static ThreadBinding capturedThreadEnvironment() {
+        Environment environment = threadEnvironment();
+        return environment == null ? null : new ThreadBinding(environment, false);
+    }
+
+    private static void setThreadEnvironment(ThreadBinding binding) {
+        if (binding == null) {
+            THREAD_ENVIRONMENT.remove();
+        } else {
+            THREAD_ENVIRONMENT.set(binding);
+        }
+    }
+
+    /**
+     * The environment a thread uses, and whether it was inherited from the thread which created it rather than
+     * set on the thread itself
+     */
+    private static final class ThreadBinding {
+        private final Environment environment;
+        private final boolean inherited;
+
+        ThreadBinding(Environment environment, boolean inherited) {
+            this.environment = environment;
+            this.inherited = inherited;
+        }
+    }
+
+    /**
+     * The sets of variables pushed by one thread, along with the environment it had before the first of them
+     */
+    private static final class ThreadStack {
+        private final Deque<Environment> layers = new ArrayDeque<>();
+        private final ThreadBinding base;
+
+        ThreadStack(ThreadBinding base) {
+            this.base = base;
+        }
+    }
+
+    /**
+     * The published state of the mocked environment. The map of variables is held by reference, so changes
+     * to it are seen immediately, and the view over it is created once, rather than on every call
+     * to {@link #getenv()}.
+     */
+    private static final class Environment {
+        private final Map<String, String> variables;
+        private final Map<String, String> view;
+
+        // set when a thread's overlay is removed, so threads which inherited it stop using it
+        private volatile boolean detached;
+
+        Environment(Map<String, String> variables) {
+            this.variables = variables;
+            this.view = new NonNullValuesView(variables);
+        }
+    }
+
+    /**
+     * Read-only view of a map of variables, which treats any variable with a <code>null</code> value as absent
+     */
+    private static final class NonNullValuesView extends AbstractMap<String, String> {
+        private final Map<String, String> variables;
+        private final Set<Map.Entry<String, String>> entrySet = new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new NonNullEntryIterator(variables.entrySet().iterator());
+            }
+
+            @Override
+            public int size() {
+                int size = 0;
+                for (String value : variables.values()) {
+                    if (value != null) {
+                        size++;
+                    }
+                }
+                return size;
+            }
+        };
+
+        NonNullValuesView(Map<String, String> variables) {
+            this.variables = variables;
+        }
+
+        @Override
+        public String get(Object key) {
+            return variables.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return variables.get(key) != null;
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            return entrySet;
+        }
+    }
+
+    private static final class NonNullEntryIterator implements Iterator<Map.Entry<String, String>> {
+        private final Iterator<Map.Entry<String, String>> source;
+        private Map.Entry<String, String> next;
+
+        NonNullEntryIterator(Iterator<Map.Entry<String, String>> source) {
+            this.source = source;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && source.hasNext()) {
+                Map.Entry<String, String> candidate = source.next();
+                if (candidate.getValue() != null) {
+                    next = new AbstractMap.SimpleImmutableEntry<>(candidate);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, String> result = next;
+            next = null;
+            return result;
+        }
+    }
+
     // add the environment variable to the child, if it exists in parent
     private static void addToEnvIfSet(StringBuilder sb, String name) {
-        String s = getenv().get(name);
+        String s = getenv(name);
         if (s != null) {
             addToEnv(sb, name, s);
         }
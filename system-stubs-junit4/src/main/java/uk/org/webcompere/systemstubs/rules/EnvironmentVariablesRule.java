@@ -49,7 +49,8 @@ public class EnvironmentVariablesRule extends EnvironmentVariables implements Sy
      */
     @Override
     public EnvironmentVariablesRule and(String name, String value) {
-        return new EnvironmentVariablesRule(super.and(name, value).getVariables());
+        return new EnvironmentVariablesRule(super.and(name, value).getVariables())
+            .setScopedToThread(isScopedToThread());
     }
 
     /**
@@ -68,6 +69,14 @@ public class EnvironmentVariablesRule extends EnvironmentVariables implements Sy
         return (EnvironmentVariablesRule)super.set(properties);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public EnvironmentVariablesRule setScopedToThread(boolean scopedToThread) {
+        return (EnvironmentVariablesRule)super.setScopedToThread(scopedToThread);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,26 @@
+package uk.org.webcompere.systemstubs.jupiter;
+
+import org.junit.platform.launcher.LauncherSession;
+import org.junit.platform.launcher.LauncherSessionListener;
+import uk.org.webcompere.systemstubs.environment.EnvironmentVariables;
+
+/**
+ * Starts intercepting the environment in the background as soon as the JUnit Platform launcher session opens,
+ * so that the cost overlaps with test discovery instead of landing on the first test to use
+ * {@link EnvironmentVariables}. This is registered automatically, but only does anything when the system
+ * property {@value #INSTALL_PROPERTY} is <code>true</code>.
+ * @since 2.1.9
+ */
+public class EnvironmentInstallingSessionListener implements LauncherSessionListener {
+    /**
+     * System property to set to <code>true</code> to intercept the environment at the start of the session
+     */
+    public static final String INSTALL_PROPERTY = "systemstubs.environment.preinstall";
+
+    @Override
+    public void launcherSessionOpened(LauncherSession session) {
+        if (Boolean.getBoolean(INSTALL_PROPERTY)) {
+            EnvironmentVariables.installInBackground();
+        }
+    }
+}
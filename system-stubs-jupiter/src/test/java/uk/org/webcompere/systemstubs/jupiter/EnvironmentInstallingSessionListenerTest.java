@@ -0,0 +1,43 @@
+package uk.org.webcompere.systemstubs.jupiter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.launcher.LauncherSession;
+import org.junit.platform.launcher.core.LauncherFactory;
+import org.mockito.MockedStatic;
+import uk.org.webcompere.systemstubs.environment.EnvironmentVariables;
+import uk.org.webcompere.systemstubs.properties.SystemProperties;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+
+class EnvironmentInstallingSessionListenerTest {
+
+    @Test
+    void whenPropertySetThenOpeningALauncherSessionInstallsEnvironmentInterception() throws Exception {
+        try (MockedStatic<EnvironmentVariables> environmentVariables =
+                 mockStatic(EnvironmentVariables.class, CALLS_REAL_METHODS)) {
+            new SystemProperties(EnvironmentInstallingSessionListener.INSTALL_PROPERTY, "true")
+                .execute(() -> {
+                    try (LauncherSession session = LauncherFactory.openSession()) {
+                        environmentVariables.verify(EnvironmentVariables::installInBackground);
+                    }
+                });
+        }
+
+        // the session started the shared installation, which later callers are given
+        assertThat(EnvironmentVariables.installInBackground()).succeedsWithin(Duration.ofMinutes(1));
+    }
+
+    @Test
+    void whenPropertyNotSetThenOpeningALauncherSessionDoesNotInstall() {
+        try (MockedStatic<EnvironmentVariables> environmentVariables =
+                 mockStatic(EnvironmentVariables.class, CALLS_REAL_METHODS);
+             LauncherSession session = LauncherFactory.openSession()) {
+            environmentVariables.verify(EnvironmentVariables::installInBackground, never());
+        }
+    }
+}